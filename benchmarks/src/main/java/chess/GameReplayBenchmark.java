@@ -0,0 +1,64 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Plays an opening through logic.move, the path console games take, then undoes it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameReplayBenchmark {
+
+    // A Ruy Lopez, in standard coordinates
+    private static final String[] GAME = {
+            "e2e4", "e7e5", "g1f3", "b8c6", "f1b5", "a7a6", "b5a4", "g8f6", "e1g1", "f8e7",
+            "f1e1", "b7b5", "a4b3", "d7d6", "c2c3", "e8g8", "h2h3", "c6b8", "d2d4", "b8d7"
+    };
+
+    private logic game;
+    private Square[] starts;
+    private Square[] ends;
+
+    @Setup
+    public void setup() {
+        game = new logic();
+        starts = new Square[GAME.length];
+        ends = new Square[GAME.length];
+
+        for (int i = 0; i < GAME.length; i++) {
+            starts[i] = Square.of('8' - GAME[i].charAt(1), GAME[i].charAt(0) - 'a');
+            ends[i] = Square.of('8' - GAME[i].charAt(3), GAME[i].charAt(2) - 'a');
+        }
+    }
+
+    @Benchmark
+    public int replay() {
+        int played = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (game.move(starts[i], ends[i]) == status.DEFAULT) played++;
+        }
+
+        while (!game.theStack.isEmpty()) game.undo();
+
+        return played;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Full perft through Side.getAllValidMoves and MoveStack make/unmake. The nodes counter
+// is reported as a rate next to the score, giving nodes per second.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+
+    @Param({"start", "kiwipete", "endgame", "promotions", "middlegame"})
+    public String position;
+
+    @Param({"3"})
+    public int depth;
+
+    private Perft perft;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        perft = new Perft(Positions.load(Positions.named(position)), depth);
+    }
+
+    @Benchmark
+    public long perft(Nodes counter) {
+        long nodes = perft.perft(depth);
+        counter.nodes += nodes;
+        return nodes;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of generating the pseudo-legal moves of every piece of one type, per position.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceGenerationBenchmark {
+
+    @Param({"kiwipete", "middlegame"})
+    public String position;
+
+    @Param({"Pawn", "Knight", "Bishop", "Rook", "Queen", "King"})
+    public String piece;
+
+    private ChessBoard board;
+    private Piece[] pieces;
+    private final MoveList moves = new MoveList();
+
+    @Setup
+    public void setup() {
+        board = Positions.load(Positions.named(position)).theBoard;
+
+        int type = java.util.Arrays.asList("Pawn", "Knight", "Bishop", "Rook", "Queen", "King").indexOf(piece);
+        long squares = board.pieceBoards[Bitboard.pieceCode(Color.White, type)]
+                | board.pieceBoards[Bitboard.pieceCode(Color.Black, type)];
+
+        pieces = new Piece[Long.bitCount(squares)];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = board.pieceAt(Long.numberOfTrailingZeros(squares));
+            squares &= squares - 1;
+        }
+    }
+
+    @Benchmark
+    public int generate() {
+        moves.clear();
+        for (Piece p : pieces) p.generateMoves(board, moves);
+        return moves.size();
+    }
+}
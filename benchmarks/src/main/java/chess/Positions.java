@@ -0,0 +1,51 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// The standard perft test positions, set up on a fresh logic.
+final class Positions {
+
+    static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -";
+    static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -";
+    static final String ENDGAME = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - -";
+    static final String PROMOTIONS = "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq -";
+    static final String MIDDLEGAME = "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - -";
+
+    private Positions() {
+    }
+
+    static String named(String name) {
+        switch (name) {
+            case "start":
+                return START;
+            case "kiwipete":
+                return KIWIPETE;
+            case "endgame":
+                return ENDGAME;
+            case "promotions":
+                return PROMOTIONS;
+            case "middlegame":
+                return MIDDLEGAME;
+            default:
+                throw new IllegalArgumentException("Unknown position: " + name);
+        }
+    }
+
+    static logic load(String fen) {
+        ChessBoard board = ChessBoard.fromFen(fen);
+        return new logic(board, board.sideToMove);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Precomputed attack sets. Sliding pieces use "fancy" magic bitboards: the relevant
+// blockers of a square are multiplied by a magic number and shifted down into an
+// index of that square's slice of one shared table.
+final class Attacks {
+
+    // Found offline by random search; each one maps every blocker subset of its square without collisions.
+    private static final long[] ROOK_MAGICS = {
+            0x008000908064C000L, 0x0040200040001000L, 0x0180100080A0010AL, 0x8880041000800800L,
+            0x1200100201200804L, 0x0200020004011008L, 0x2180010000800600L, 0x0200005088210204L,
+            0x0400800040008021L, 0x0400400020005000L, 0x8240801000200080L, 0x8611001004200900L,
+            0x008180800C001800L, 0x0100800200800400L, 0x0A02000102000408L, 0x8020802300104280L,
+            0x0080004000402000L, 0xE010104000402000L, 0x0800808010002000L, 0xA280210008100100L,
+            0x0001818014000800L, 0xA002010100080400L, 0x0080240001020870L, 0x0001020004048845L,
+            0x0081826280004004L, 0x2020810900284000L, 0x0200100080802000L, 0x0200080080100080L,
+            0x8083080100100500L, 0x4406000901000400L, 0x0005020080800100L, 0x0090204200008114L,
+            0x0010400094800420L, 0x0900804000802002L, 0x0201001841002000L, 0x4100080080801000L,
+            0x4540040080800800L, 0x0002001004040020L, 0x0281195814001002L, 0x1240800040800100L,
+            0x0880042000524004L, 0x02C080410206002CL, 0x0801200241050010L, 0x8400080010008080L,
+            0x0008000500090010L, 0x0082009084020008L, 0x4012000108020004L, 0x9000104D08860004L,
+            0x2004204114800100L, 0x0148802112400300L, 0x0202842000100880L, 0x001B080080900080L,
+            0x001A002008100600L, 0x0004008004020080L, 0x5181000600040300L, 0x0000044401128A00L,
+            0x8044110480002441L, 0x2008110084402202L, 0x90806005090010C1L, 0x000420310A004A42L,
+            0x0023001004020801L, 0x0882001008040102L, 0x000230088118020CL, 0x0000019025040042L
+    };
+
+    private static final long[] BISHOP_MAGICS = {
+            0x0045010808008680L, 0x2002080204004898L, 0x0210009A10400006L, 0x0824050200810200L,
+            0x0006061105004090L, 0x00010108C0000000L, 0x0814040282104004L, 0x0012012201106800L,
+            0x10823014100C1040L, 0x0080C2088802808CL, 0x0281108410404000L, 0x0101212041826200L,
+            0x0020141028221058L, 0x2201020202200202L, 0x000082A801482000L, 0x0000008401411044L,
+            0x0007103014300404L, 0x0002091110010100L, 0x42140012040C0808L, 0x0800808802004020L,
+            0x90C4004210140000L, 0x0800200900A01000L, 0x00D0400201108810L, 0x80820183814412A0L,
+            0x00A01008202202B4L, 0x01C2021A09500402L, 0x0084440208042400L, 0x800400400C090100L,
+            0xBA10040010802100L, 0xD182009006005000L, 0x5011021001009004L, 0x0020420200510400L,
+            0x0292104000468800L, 0x00043009091C0500L, 0x0280441000020025L, 0x0042820080080080L,
+            0x0440101010010040L, 0x1000900100808080L, 0x0108108120089800L, 0x0044010200012682L,
+            0xC002500420900400L, 0x0040482210710800L, 0x0002060024000200L, 0x0281020A44000800L,
+            0xA0021200A4000200L, 0x0001301000840840L, 0x2868500108444220L, 0x0004111041000200L,
+            0x8044020842080200L, 0x0000220104210200L, 0x0000021201044000L, 0x0000280884040028L,
+            0x4012114010858003L, 0x0000081004082B88L, 0x3892700508208002L, 0x00220A041B060400L,
+            0x0812020284014881L, 0x010434A282103100L, 0x0490400824020800L, 0x4A20002C00208800L,
+            0x000000A011020200L, 0x4002940A02482202L, 0x5100100202140406L, 0x02102000840540C1L
+    };
+
+    static final long[] KNIGHT = new long[64];
+    static final long[] KING = new long[64];
+    // Indexed by color ordinal, then by the square the pawn stands on
+    static final long[][] PAWN = new long[2][64];
+
+    // Squares strictly between two aligned squares, and the whole line through them; 0 when not aligned
+    static final long[][] BETWEEN = new long[64][64];
+    static final long[][] LINE = new long[64][64];
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE;
+
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] BISHOP_TABLE;
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            KNIGHT[square] = stepAttacks(square, Piece.KNIGHT_JUMPS);
+            KING[square] = stepAttacks(square, Piece.ADJACENT);
+            PAWN[Color.White.ordinal()][square] = stepAttacks(square, new int[][]{{-1, -1}, {-1, 1}});
+            PAWN[Color.Black.ordinal()][square] = stepAttacks(square, new int[][]{{1, -1}, {1, 1}});
+
+            fillLines(square, Piece.ORTHOGONAL);
+            fillLines(square, Piece.DIAGONAL);
+        }
+
+        ROOK_TABLE = buildTable(Piece.ORTHOGONAL, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_OFFSETS);
+        BISHOP_TABLE = buildTable(Piece.DIAGONAL, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_OFFSETS);
+    }
+
+    private Attacks() {
+    }
+
+    static long rook(int square, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSETS[square]
+                + (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    static long bishop(int square, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[square]
+                + (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    static long pawn(Color color, int square) {
+        return PAWN[color.ordinal()][square];
+    }
+
+    private static long stepAttacks(int square, int[][] offsets) {
+        long attacks = 0;
+
+        for (int[] offset : offsets) {
+            int row = Bitboard.row(square) + offset[0];
+            int column = Bitboard.column(square) + offset[1];
+            if (row >= 0 && row < 8 && column >= 0 && column < 8) attacks |= Bitboard.bit(Bitboard.square(row, column));
+        }
+        return attacks;
+    }
+
+    private static void fillLines(int square, int[][] directions) {
+        for (int[] direction : directions) {
+            long line = Bitboard.bit(square)
+                    | ray(square, direction[0], direction[1]) | ray(square, -direction[0], -direction[1]);
+
+            long between = 0;
+            int row = Bitboard.row(square) + direction[0];
+            int column = Bitboard.column(square) + direction[1];
+
+            while (row >= 0 && row < 8 && column >= 0 && column < 8) {
+                int other = Bitboard.square(row, column);
+                BETWEEN[square][other] = between;
+                LINE[square][other] = line;
+                between |= Bitboard.bit(other);
+                row += direction[0];
+                column += direction[1];
+            }
+        }
+    }
+
+    private static long ray(int square, int rowStep, int columnStep) {
+        return slidingAttacks(square, 0, new int[][]{{rowStep, columnStep}});
+    }
+
+    // Walks the rays the slow way; only used to fill the tables.
+    private static long slidingAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0;
+
+        for (int[] direction : directions) {
+            int row = Bitboard.row(square) + direction[0];
+            int column = Bitboard.column(square) + direction[1];
+
+            while (row >= 0 && row < 8 && column >= 0 && column < 8) {
+                long b = Bitboard.bit(Bitboard.square(row, column));
+                attacks |= b;
+                if ((occupied & b) != 0) break;
+                row += direction[0];
+                column += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    // The squares whose occupancy matters: the rays minus their last square.
+    private static long relevantBlockers(int square, int[][] directions) {
+        long mask = 0;
+
+        for (int[] direction : directions) {
+            int row = Bitboard.row(square) + direction[0];
+            int column = Bitboard.column(square) + direction[1];
+
+            while (row + direction[0] >= 0 && row + direction[0] < 8
+                    && column + direction[1] >= 0 && column + direction[1] < 8) {
+                mask |= Bitboard.bit(Bitboard.square(row, column));
+                row += direction[0];
+                column += direction[1];
+            }
+        }
+        return mask;
+    }
+
+    private static long[] buildTable(int[][] directions, long[] masks, long[] magics, int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int square = 0; square < 64; square++) {
+            masks[square] = relevantBlockers(square, directions);
+            shifts[square] = 64 - Long.bitCount(masks[square]);
+            offsets[square] = size;
+            size += 1 << Long.bitCount(masks[square]);
+        }
+
+        long[] table = new long[size];
+
+        for (int square = 0; square < 64; square++) {
+            // Enumerate every subset of the mask
+            long blockers = 0;
+            do {
+                int index = (int) ((blockers * magics[square]) >>> shifts[square]);
+                table[offsets[square] + index] = slidingAttacks(square, blockers, directions);
+                blockers = (blockers - masks[square]) & masks[square];
+            } while (blockers != 0);
+        }
+        return table;
+    }
+}
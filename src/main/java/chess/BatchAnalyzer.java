@@ -0,0 +1,315 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Searches every position in a FEN or EPD file and writes one EPD line per input line, in
+// input order, with the best move (bm, in SAN), score (ce, or dm for a forced mate, negative
+// when it is the side to move that gets mated), depth (acd) and node count (acn); the same
+// operations on the input line are replaced. The input is memory-mapped and cut into line-aligned chunks that
+// run on a fork/join pool; only a fixed window of chunks is in flight, so memory use does
+// not grow with the size of the file.
+//
+//     java chess.BatchAnalyzer <input> <output> [depth] [threads]
+final class BatchAnalyzer {
+
+    // The input is mapped this much at a time, so no line may be longer
+    private static final long SEGMENT_BYTES = 256L << 20;
+    private static final int CHUNK_BYTES = 64 << 10;
+    // Chunks in flight per thread before the writer waits for the oldest
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private static final long REPORT_NANOS = 1_000_000_000L;
+
+    private final int depth;
+    private final ForkJoinPool pool;
+    private final int window;
+    // One board, game and search per pool thread, reused for every position it is given
+    private final ThreadLocal<Worker> workers;
+
+    private long positions;
+    private long bytesRead;
+
+    BatchAnalyzer(int depth, int threads) {
+        this.depth = depth;
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.window = WINDOW_PER_THREAD * pool.getParallelism();
+        this.workers = ThreadLocal.withInitial(() -> new Worker(this.depth));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BatchAnalyzer <input> <output> [depth] [threads]");
+            System.exit(2);
+        }
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(depth, threads);
+        try {
+            analyzer.run(Paths.get(args[0]), Paths.get(args[1]));
+        } finally {
+            analyzer.pool.shutdown();
+        }
+    }
+
+    // Returns the number of positions analyzed. Progress goes to stderr about once a second.
+    long run(Path input, Path output) throws IOException {
+        positions = 0;
+        bytesRead = 0;
+        long started = System.nanoTime();
+        long lastReport = started;
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            long size = in.size();
+
+            for (long start = 0; start < size; ) {
+                long length = Math.min(SEGMENT_BYTES, size - start);
+                MappedByteBuffer segment = in.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+                // A segment ends on a line break unless it runs to the end of the file
+                int end = (start + length == size) ? (int) length : lastLineBreak(segment, (int) length) + 1;
+                if (end == 0) throw new IOException("Line longer than " + SEGMENT_BYTES + " bytes at offset " + start);
+
+                for (int offset = 0; offset < end; ) {
+                    int chunkEnd = (offset + CHUNK_BYTES >= end) ? end : lastLineBreak(segment, offset + CHUNK_BYTES) + 1;
+                    // A line longer than a chunk gets a chunk of its own
+                    if (chunkEnd <= offset) chunkEnd = nextLineBreak(segment, offset + CHUNK_BYTES, end) + 1;
+
+                    int from = offset;
+                    int to = chunkEnd;
+                    pending.add(pool.submit(() -> workers.get().analyze(segment, from, to)));
+                    if (pending.size() >= window) write(pending.remove().join(), out);
+                    offset = chunkEnd;
+
+                    if (System.nanoTime() - lastReport > REPORT_NANOS) {
+                        lastReport = System.nanoTime();
+                        report(started, lastReport);
+                    }
+                }
+                start += end;
+            }
+
+            while (!pending.isEmpty()) write(pending.remove().join(), out);
+        }
+
+        report(started, System.nanoTime());
+        return positions;
+    }
+
+    private void write(Chunk chunk, FileChannel out) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(chunk.bytes, 0, chunk.size);
+        while (bytes.hasRemaining()) out.write(bytes);
+        positions += chunk.positions;
+        bytesRead += chunk.inputBytes;
+    }
+
+    private void report(long started, long now) {
+        double seconds = Math.max(now - started, 1) / 1e9;
+        System.err.printf("%d positions in %.1f s: %.0f positions/s, %.2f MB/s%n",
+                positions, seconds, positions / seconds, bytesRead / seconds / 1e6);
+    }
+
+    // Index of the last '\n' before end, or -1 if there is none
+    private static int lastLineBreak(ByteBuffer buffer, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    // Index of the first '\n' at or after start, or end - 1 if there is none
+    private static int nextLineBreak(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\n') return i;
+        }
+        return end - 1;
+    }
+
+    // The output of one chunk, waiting its turn to be written
+    private static final class Chunk {
+        byte[] bytes;
+        int size;
+        int positions;
+        int inputBytes;
+
+        Chunk(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void append(char c) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[size++] = (byte) c;
+        }
+
+        void append(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) append(text.charAt(i));
+        }
+
+        void append(ByteBuffer buffer, int from, int to) {
+            for (int i = from; i < to; i++) append((char) (buffer.get(i) & 0xff));
+        }
+    }
+
+    private static final class Worker {
+        // What analyzeLine writes, so the input's own are left out
+        private static final String[] WRITTEN_OPCODES = {"bm", "ce", "dm", "acd", "acn"};
+
+        private final int depth;
+        private final logic game = new logic(new ChessBoard(), Color.White);
+        private final Search search = new Search(game);
+        private final StringBuilder number = new StringBuilder();
+        private final MoveList legal = new MoveList();
+
+        Worker(int depth) {
+            this.depth = depth;
+        }
+
+        Chunk analyze(ByteBuffer segment, int from, int to) {
+            // Analysis lines come out a little longer than the positions that go in
+            Chunk chunk = new Chunk((to - from) + (to - from) / 2 + 64);
+            chunk.inputBytes = to - from;
+
+            for (int start = from; start < to; ) {
+                int end = nextLineBreak(segment, start, to);
+                int lineEnd = (segment.get(end) == '\n') ? end : end + 1;
+                int trimmed = lineEnd;
+                while (trimmed > start && (segment.get(trimmed - 1) == '\r' || segment.get(trimmed - 1) == ' ')) trimmed--;
+
+                analyzeLine(segment, start, trimmed, chunk);
+                chunk.append('\n');
+                start = lineEnd + 1;
+            }
+            return chunk;
+        }
+
+        // Blank and '#' lines are copied through, so output lines keep matching input lines.
+        private void analyzeLine(ByteBuffer segment, int start, int end, Chunk chunk) {
+            if (start == end || segment.get(start) == '#') {
+                chunk.append(segment, start, end);
+                return;
+            }
+
+            try {
+                game.loadFen(segment, start, end - start);
+            } catch (IllegalArgumentException e) {
+                chunk.append(segment, start, end);
+                chunk.append(" c0 \"unreadable position\";");
+                return;
+            }
+
+            Search.Result result = search.search(depth, Long.MAX_VALUE);
+            chunk.positions++;
+
+            // The four position fields, then the analysis, then whatever EPD operations followed
+            int fields = endOfFields(segment, start, end, 4);
+            chunk.append(segment, start, fields);
+
+            if (result.move != MoveList.NONE) {
+                number.setLength(0);
+                MoveGenerator.generateLegalMoves(game.theBoard, game.theBoard.sideToMove, legal);
+                San.append(number, game.theBoard, legal, result.move);
+                chunk.append(" bm ");
+                chunk.append(number);
+                chunk.append(';');
+            }
+            if (result.score > Search.MATE_BOUND) {
+                chunk.append(" dm ");
+                appendNumber(chunk, (Search.MATE - result.score + 1) / 2);
+            } else if (result.score < -Search.MATE_BOUND) {
+                chunk.append(" dm ");
+                appendNumber(chunk, -(Search.MATE + result.score) / 2);
+            } else {
+                chunk.append(" ce ");
+                appendNumber(chunk, result.score);
+            }
+            chunk.append("; acd ");
+            appendNumber(chunk, result.depth);
+            chunk.append("; acn ");
+            appendNumber(chunk, result.nodes);
+            chunk.append(';');
+
+            int rest = fields;
+            while (rest < end && segment.get(rest) == ' ') rest++;
+            // FEN move counters are dropped; EPD operations are kept, but for the ones written above
+            if (rest < end && (segment.get(rest) < '0' || segment.get(rest) > '9')) appendOperations(segment, rest, end, chunk);
+        }
+
+        private static void appendOperations(ByteBuffer segment, int start, int end, Chunk chunk) {
+            while (start < end) {
+                while (start < end && segment.get(start) == ' ') start++;
+                if (start == end) return;
+
+                // An operation runs to the first semicolon outside a quoted string
+                int opcodeEnd = start;
+                while (opcodeEnd < end && segment.get(opcodeEnd) != ' ' && segment.get(opcodeEnd) != ';') opcodeEnd++;
+                int operationEnd = opcodeEnd;
+                boolean quoted = false;
+                while (operationEnd < end && (quoted || segment.get(operationEnd) != ';')) {
+                    if (segment.get(operationEnd) == '"') quoted = !quoted;
+                    operationEnd++;
+                }
+                if (operationEnd < end) operationEnd++;
+
+                if (!isWritten(segment, start, opcodeEnd)) {
+                    chunk.append(' ');
+                    chunk.append(segment, start, operationEnd);
+                }
+                start = operationEnd;
+            }
+        }
+
+        private static boolean isWritten(ByteBuffer segment, int start, int end) {
+            for (String opcode : WRITTEN_OPCODES) {
+                if (opcode.length() != end - start) continue;
+                boolean same = true;
+                for (int i = 0; i < opcode.length() && same; i++) same = segment.get(start + i) == opcode.charAt(i);
+                if (same) return true;
+            }
+            return false;
+        }
+
+        private void appendNumber(Chunk chunk, long value) {
+            number.setLength(0);
+            number.append(value);
+            chunk.append(number);
+        }
+
+        // Index just past the last of the first count space separated fields
+        private static int endOfFields(ByteBuffer segment, int start, int end, int count) {
+            int i = start;
+            for (int field = 0; field < count && i < end; field++) {
+                while (i < end && segment.get(i) == ' ') i++;
+                while (i < end && segment.get(i) != ' ') i++;
+            }
+            return i;
+        }
+    }
+}
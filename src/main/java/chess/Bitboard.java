@@ -0,0 +1,56 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Squares are numbered row * 8 + column, matching the indices of ChessBoard.theBoard.
+final class Bitboard {
+
+    static final int PAWN = 0;
+    static final int KNIGHT = 1;
+    static final int BISHOP = 2;
+    static final int ROOK = 3;
+    static final int QUEEN = 4;
+    static final int KING = 5;
+
+    static final int PIECE_TYPES = 6;
+
+    private Bitboard() {
+    }
+
+    static int square(int row, int column) {
+        return row * 8 + column;
+    }
+
+    static int row(int square) {
+        return square >>> 3;
+    }
+
+    static int column(int square) {
+        return square & 7;
+    }
+
+    static long bit(int square) {
+        return 1L << square;
+    }
+
+    static int pieceCode(Color color, int type) {
+        return color.ordinal() * PIECE_TYPES + type;
+    }
+
+    static Color opposite(Color color) {
+        return (color == Color.White) ? Color.Black : Color.White;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Objects;
+import java.util.Set;
+
+// Draws a board as ANSI colored text. Each frame is built in one reusable buffer and goes
+// out in a single write. A pinned renderer owns the top of the terminal: it draws the whole
+// board once, leaves everything printed afterwards scrolling underneath it, and from then
+// on rewrites only the squares that changed since the frame before.
+final class BoardRenderer {
+
+    private static final String CLEAR_SCREEN = "\u001B[2J\u001B[H";
+    private static final String SAVE_CURSOR = "\u001B7";
+    private static final String RESTORE_CURSOR = "\u001B8";
+    private static final String RESET_SCROLL_REGION = "\u001B[r";
+
+    private static final String TITLE = "  | a | b | c | d | e | f | g | h |\n" + "—".repeat(35) + "\n";
+
+    // Title, rule and eight ranks, then a blank line before the scrolling text
+    private static final int FRAME_LINES = 10;
+    private static final int FIRST_RANK_LINE = 3;
+
+    private final PrintStream stream;
+    private final Writer out;
+    private final boolean pinned;
+
+    private final StringBuilder frame = new StringBuilder(1 << 12);
+    private char[] chars = new char[1 << 12];
+
+    // What each square showed in the last frame, by square index
+    private final String[] shown = new String[64];
+    private final boolean[] shownHighlighted = new boolean[64];
+    private boolean drawn;
+
+    BoardRenderer(PrintStream stream, boolean pinned) {
+        this.stream = stream;
+        this.out = new OutputStreamWriter(stream, stream.charset());
+        this.pinned = pinned;
+    }
+
+    synchronized void draw(ChessBoard board) {
+        draw(board, null);
+    }
+
+    // Draws the board with the given squares highlighted; highlighted may be null.
+    synchronized void draw(ChessBoard board, Set<Square> highlighted) {
+        frame.setLength(0);
+        if (pinned && drawn) appendChanges(board, highlighted);
+        else appendFrame(board, highlighted);
+        drawn = true;
+
+        if (frame.length() > 0) write();
+    }
+
+    // Makes the next frame a whole one, for when the screen may have been disturbed.
+    synchronized void invalidate() {
+        drawn = false;
+    }
+
+    // Gives the whole screen back to scrolling text.
+    synchronized void release() {
+        if (!pinned || !drawn) return;
+        frame.setLength(0);
+        frame.append(RESET_SCROLL_REGION).append("\u001B[").append(FRAME_LINES + 2).append(";1H");
+        write();
+        drawn = false;
+    }
+
+    private void appendFrame(ChessBoard board, Set<Square> highlighted) {
+        if (pinned) frame.append(RESET_SCROLL_REGION).append(CLEAR_SCREEN);
+
+        frame.append(TITLE);
+        for (int row = 7; row >= 0; row--) {
+            frame.append(row + 1).append(" |");
+            for (int col = 0; col < 8; col++) appendSquare(board, row, col, highlighted);
+            frame.append('\n');
+        }
+
+        // Keep the board where it is while the text below scrolls
+        if (pinned) frame.append("\u001B[").append(FRAME_LINES + 2).append("r\u001B[").append(FRAME_LINES + 2).append(";1H");
+    }
+
+    private void appendChanges(ChessBoard board, Set<Square> highlighted) {
+        int start = frame.length();
+        for (int row = 7; row >= 0; row--) {
+            for (int col = 0; col < 8; col++) {
+                int square = Bitboard.square(row, col);
+                Piece piece = board.get(row, col);
+                String text = (piece == null) ? null : piece.pieceIdentification;
+                boolean highlight = highlighted != null && highlighted.contains(Square.of(row, col));
+                if (highlight == shownHighlighted[square] && Objects.equals(text, shown[square])) continue;
+
+                frame.append("\u001B[").append(FIRST_RANK_LINE + 7 - row).append(';').append(4 + 4 * col).append('H');
+                appendSquare(board, row, col, highlighted);
+            }
+        }
+        if (frame.length() > start) {
+            frame.insert(start, SAVE_CURSOR);
+            frame.append(RESTORE_CURSOR);
+        }
+    }
+
+    // The square's three characters on its checkered or highlighted background, then the separator
+    private void appendSquare(ChessBoard board, int row, int col, Set<Square> highlighted) {
+        int square = Bitboard.square(row, col);
+        Piece piece = board.get(row, col);
+        boolean highlight = highlighted != null && highlighted.contains(Square.of(row, col));
+
+        if (highlight) frame.append(outputHelpers.BACKGROUND_CYAN);
+        else frame.append(((row * 9 + col) % 2 == 0) ? outputHelpers.BACKGROUND_BLACK : outputHelpers.BACKGROUND_WHITE);
+
+        frame.append(' ');
+        if (piece != null) frame.append(piece.pieceIdentification);
+        else frame.append(highlight ? '*' : ' ');
+        frame.append(' ').append(outputHelpers.RESET).append('|');
+
+        shown[square] = (piece == null) ? null : piece.pieceIdentification;
+        shownHighlighted[square] = highlight;
+    }
+
+    private void write() {
+        int length = frame.length();
+        if (chars.length < length) chars = new char[Math.max(length, 2 * chars.length)];
+        frame.getChars(0, length, chars, 0);
+
+        try {
+            // Anything already printed to the stream goes first
+            stream.flush();
+            out.write(chars, 0, length);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
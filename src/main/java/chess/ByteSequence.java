@@ -0,0 +1,61 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.nio.ByteBuffer;
+
+// An ASCII view of part of a ByteBuffer, so text in a mapped file can be parsed without
+// decoding it into Strings first. Point it at the next slice with reset and use it again.
+final class ByteSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    ByteSequence reset(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit())
+            throw new IndexOutOfBoundsException("Slice " + offset + "+" + length + " outside limit " + buffer.limit());
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    // Absolute get, so the buffer's position is left alone and several views may share it
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+        return new ByteSequence().reset(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(charAt(i));
+        return text.toString();
+    }
+}
@@ -15,10 +15,12 @@
 
 package chess;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
 
-import static chess.outputHelpers.RESET;
-
 class outputHelpers {
 
     public static final String BLACK = "\u001B[30m";
@@ -45,8 +47,68 @@ class outputHelpers {
 }
 
 public class ChessBoard {
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+
+    // Rights kept by a move touching each square: moving or capturing on a king or rook home square drops them.
+    private static final int[] CASTLING_MASKS = new int[64];
+
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // Piece letters by type, and castling letters by right bit
+    private static final String FEN_PIECES = "pnbrqk";
+    private static final String FEN_CASTLING = "KQkq";
+
+    // Console output through a shared renderer, so each board goes out in a single write
+    private static final BoardRenderer PRINTER = new BoardRenderer(System.out, false);
+
+    static {
+        Arrays.fill(CASTLING_MASKS, 15);
+        CASTLING_MASKS[Bitboard.square(7, 4)] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        CASTLING_MASKS[Bitboard.square(7, 7)] &= ~WHITE_KINGSIDE;
+        CASTLING_MASKS[Bitboard.square(7, 0)] &= ~WHITE_QUEENSIDE;
+        CASTLING_MASKS[Bitboard.square(0, 4)] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+        CASTLING_MASKS[Bitboard.square(0, 7)] &= ~BLACK_KINGSIDE;
+        CASTLING_MASKS[Bitboard.square(0, 0)] &= ~BLACK_QUEENSIDE;
+    }
+
     Piece[][] theBoard = new Piece[8][8];
 
+    // Mirrors of theBoard: one word per piece code (see Bitboard.pieceCode), one per color and the union.
+    long[] pieceBoards = new long[2 * Bitboard.PIECE_TYPES];
+    long[] colorBoards = new long[2];
+    long occupied;
+
+    // Square of each color's king by color ordinal, -1 while it is off the board
+    int[] kingSquares = {-1, -1};
+
+    Color sideToMove = Color.White;
+    int castlingRights;
+    // The square a pawn skipped over on the last move, -1 unless an enemy pawn could take it there
+    int enPassantSquare = -1;
+
+    // Zobrist key of the position, kept up to date by every write below
+    private long hash = Zobrist.CASTLING[0];
+    // The same, over the pawns alone, for PawnTable
+    private long pawnHash;
+
+    // Evaluation's middlegame and endgame sums from White's side and the game phase, kept up to date the same way
+    int midgame;
+    int endgame;
+    int phase;
+
+    // Backs the HashSet based Piece.getMoves so it can share generateMoves
+    final MoveList scratchMoves = new MoveList();
+
+    // Pieces lifted off by loadFen, by piece code, waiting to be placed again
+    private final Piece[][] spares = new Piece[2 * Bitboard.PIECE_TYPES][8];
+    private final int[] spareCounts = new int[2 * Bitboard.PIECE_TYPES];
+    private final ByteSequence fenView = new ByteSequence();
+    // Where loadFen puts the pieces it reads before it touches the board
+    private final long[] parsedBoards = new long[2 * Bitboard.PIECE_TYPES];
+
     ChessBoard() {
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
@@ -55,11 +117,6 @@ public class ChessBoard {
         }
     }
 
-    private static void checkeredPattern(int row, int col) {
-        if ((row * 9 + col) % 2 == 0) System.out.print(outputHelpers.BACKGROUND_BLACK);
-        else System.out.print(outputHelpers.BACKGROUND_WHITE);
-    }
-
     public static void main(String[] args) {
         ChessBoard b = new ChessBoard();
 
@@ -79,121 +136,491 @@ public class ChessBoard {
         b.printBoard();
     }
 
-    private Piece checkPieceValidity(int row, int column) {
-        if (row > 7 || column > 7 || row < 0 || column < 0) return new OutOfBoundsPiece(null, null);
-        return null;
-    }
-
-    private Piece checkPieceValidity(Position pos) {
-        return checkPieceValidity(pos.row, pos.column);
+    private static boolean onBoard(int row, int column) {
+        return row >= 0 && row < 8 && column >= 0 && column < 8;
     }
 
     public Piece get(int row, int column) {
-        if (checkPieceValidity(row, column) instanceof OutOfBoundsPiece) return new OutOfBoundsPiece(null, null);
+        if (!onBoard(row, column)) return OutOfBoundsPiece.INSTANCE;
         else return theBoard[row][column];
     }
 
-    public Piece get(Position p) {
+    public Piece get(Square p) {
         return this.get(p.getRow(), p.getColumn());
     }
 
-    public void forceSet(Piece replacement, Position thePosition) {
+    public Piece pieceAt(int square) {
+        return theBoard[Bitboard.row(square)][Bitboard.column(square)];
+    }
+
+    // Every write to theBoard goes through these two so the bitboards never drift from the array.
+    private void clearSquare(int row, int column) {
+        Piece old = theBoard[row][column];
+        if (old != null) {
+            long b = Bitboard.bit(Bitboard.square(row, column));
+            pieceBoards[old.getCode()] &= ~b;
+            colorBoards[old.getColor().ordinal()] &= ~b;
+            occupied &= ~b;
+            hash ^= Zobrist.PIECES[old.getCode()][Bitboard.square(row, column)];
+            if (old.getType() == Bitboard.PAWN) pawnHash ^= Zobrist.PIECES[old.getCode()][Bitboard.square(row, column)];
+            midgame -= Evaluation.MIDGAME[old.getCode()][Bitboard.square(row, column)];
+            endgame -= Evaluation.ENDGAME[old.getCode()][Bitboard.square(row, column)];
+            phase -= Evaluation.PHASE_WEIGHTS[old.getType()];
+            theBoard[row][column] = null;
+
+            if (old.getType() == Bitboard.KING && kingSquares[old.getColor().ordinal()] == Bitboard.square(row, column))
+                kingSquares[old.getColor().ordinal()] = -1;
+        }
+    }
+
+    private void setSquare(Piece replacement, int row, int column) {
+        clearSquare(row, column);
+        if (replacement != null) {
+            long b = Bitboard.bit(Bitboard.square(row, column));
+            pieceBoards[replacement.getCode()] |= b;
+            colorBoards[replacement.getColor().ordinal()] |= b;
+            occupied |= b;
+            hash ^= Zobrist.PIECES[replacement.getCode()][Bitboard.square(row, column)];
+            if (replacement.getType() == Bitboard.PAWN) pawnHash ^= Zobrist.PIECES[replacement.getCode()][Bitboard.square(row, column)];
+            midgame += Evaluation.MIDGAME[replacement.getCode()][Bitboard.square(row, column)];
+            endgame += Evaluation.ENDGAME[replacement.getCode()][Bitboard.square(row, column)];
+            phase += Evaluation.PHASE_WEIGHTS[replacement.getType()];
+            theBoard[row][column] = replacement;
+
+            if (replacement.getType() == Bitboard.KING)
+                kingSquares[replacement.getColor().ordinal()] = Bitboard.square(row, column);
+        }
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    long pawnHash() {
+        return pawnHash;
+    }
+
+    void setSideToMove(Color color) {
+        if (color != sideToMove) hash ^= Zobrist.BLACK_TO_MOVE;
+        sideToMove = color;
+    }
+
+    void setCastlingRights(int rights) {
+        hash ^= Zobrist.CASTLING[castlingRights] ^ Zobrist.CASTLING[rights];
+        castlingRights = rights;
+    }
+
+    void setEnPassantSquare(int square) {
+        if (enPassantSquare != -1) hash ^= Zobrist.EN_PASSANT_FILE[Bitboard.column(enPassantSquare)];
+        if (square != -1) hash ^= Zobrist.EN_PASSANT_FILE[Bitboard.column(square)];
+        enPassantSquare = square;
+    }
+
+    private void clearSquare(int square) {
+        clearSquare(Bitboard.row(square), Bitboard.column(square));
+    }
+
+    private void placePiece(Piece piece, int square) {
+        setSquare(piece, Bitboard.row(square), Bitboard.column(square));
+        piece.setPosition(Bitboard.row(square), Bitboard.column(square));
+    }
+
+    // Every piece of the given color that attacks the square, seen through the given occupancy.
+    long attackersTo(int square, Color byColor, long occupancy) {
+        return attackers(pieceBoards, square, byColor, occupancy);
+    }
+
+    // The same over any set of piece boards, indexed like pieceBoards
+    private static long attackers(long[] boards, int square, Color byColor, long occupancy) {
+        int side = byColor.ordinal() * Bitboard.PIECE_TYPES;
+        long queens = boards[side + Bitboard.QUEEN];
+
+        return (Attacks.pawn(Bitboard.opposite(byColor), square) & boards[side + Bitboard.PAWN])
+                | (Attacks.KNIGHT[square] & boards[side + Bitboard.KNIGHT])
+                | (Attacks.KING[square] & boards[side + Bitboard.KING])
+                | (Attacks.bishop(square, occupancy) & (boards[side + Bitboard.BISHOP] | queens))
+                | (Attacks.rook(square, occupancy) & (boards[side + Bitboard.ROOK] | queens));
+    }
+
+    // Looks outward from the square with each piece's attack pattern instead of generating the enemy's moves.
+    public boolean isSquareAttacked(int square, Color byColor) {
+        int side = byColor.ordinal() * Bitboard.PIECE_TYPES;
+
+        if ((Attacks.pawn(Bitboard.opposite(byColor), square) & pieceBoards[side + Bitboard.PAWN]) != 0) return true;
+        if ((Attacks.KNIGHT[square] & pieceBoards[side + Bitboard.KNIGHT]) != 0) return true;
+        if ((Attacks.KING[square] & pieceBoards[side + Bitboard.KING]) != 0) return true;
+
+        long queens = pieceBoards[side + Bitboard.QUEEN];
+        if ((Attacks.bishop(square, occupied) & (pieceBoards[side + Bitboard.BISHOP] | queens)) != 0) return true;
+        return (Attacks.rook(square, occupied) & (pieceBoards[side + Bitboard.ROOK] | queens)) != 0;
+    }
+
+    public boolean isInCheck(Color color) {
+        int king = kingSquares[color.ordinal()];
+        return king != -1 && isSquareAttacked(king, Bitboard.opposite(color));
+    }
+
+    public void forceSet(Piece replacement, Square thePosition) {
 //        System.out.println("Forceset: " + thePosition + " " + replacement);
-        theBoard[thePosition.row][thePosition.column] = replacement;
+        setSquare(replacement, thePosition.row, thePosition.column);
         if (replacement != null)
             replacement.setPosition(thePosition.row, thePosition.column);
     }
 
     public Piece move(Piece replacement, int newRow, int newColumn) {
-        if (checkPieceValidity(newRow, newColumn) instanceof OutOfBoundsPiece)
-            return new OutOfBoundsPiece(null, null);
+        if (!onBoard(newRow, newColumn))
+            return OutOfBoundsPiece.INSTANCE;
         else {
-            theBoard[replacement.getCurrentPosition().row][replacement.getCurrentPosition().column] = null;
+            clearSquare(replacement.getCurrentPosition().row, replacement.getCurrentPosition().column);
             Piece currentPiece = theBoard[newRow][newColumn];
-            theBoard[newRow][newColumn] = replacement;
+            setSquare(replacement, newRow, newColumn);
             replacement.setPosition(newRow, newColumn);
             return currentPiece;
         }
 
     }
 
-    public void printBoard() {
-        printTitle();
+    // A board with its own piece objects in the same position, for another thread to play on.
+    ChessBoard copy() {
+        ChessBoard copy = new ChessBoard();
 
-        for (int row = 8; row >= 1; row--) {
-            System.out.print(row + " |");
-            for (int col = 0; col < 8; col++) {
-                Piece pieceToBePrinted = this.get(row - 1, col);
-
-                checkeredPattern(row - 1, col);
-
-                if (pieceToBePrinted == null) {
-                    System.out.print("   ");
-//                    if ((row * 9 + col) % 2 == 0) System.out.print("\u2009");
-                } else {
-//                    System.out.println("Printing something");
-                    if (pieceToBePrinted.getColor() == Color.Black) {
-                        System.out.print(" ");
-                        System.out.print(pieceToBePrinted.pieceIdentification);
-                        checkeredPattern(row - 1, col);
-                        System.out.print(" ");
-                    } else {
-                        System.out.print(" ");
-                        System.out.print(pieceToBePrinted.pieceIdentification);
-                        checkeredPattern(row - 1, col);
-                        System.out.print(" ");
-                    }
+        long pieces = occupied;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            Piece p = pieceAt(square);
+            copy.placePiece(createPiece(p.getColor(), p.getType(), square), square);
+        }
 
-                }
-                System.out.print(RESET);
-                System.out.print("|");
+        copy.setCastlingRights(castlingRights);
+        copy.setEnPassantSquare(enPassantSquare);
+        copy.setSideToMove(sideToMove);
+        return copy;
+    }
+
+    // Replaces the whole position with other's, recycling this board's pieces as loadFen does.
+    void copyFrom(ChessBoard other) {
+        removeAllPieces();
+
+        long pieces = other.occupied;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            Piece p = other.pieceAt(square);
+            placePiece(takePiece(p.getColor(), p.getType(), square), square);
+        }
+
+        setCastlingRights(other.castlingRights);
+        setEnPassantSquare(other.enPassantSquare);
+        setSideToMove(other.sideToMove);
+    }
+
+    static Piece createPiece(Color color, int type, int square) {
+        Square p = Square.of(square);
+        switch (type) {
+            case Bitboard.PAWN:
+                return new Pawn(color, p);
+            case Bitboard.KNIGHT:
+                return new Knight(color, p);
+            case Bitboard.BISHOP:
+                return new Bishop(color, p);
+            case Bitboard.ROOK:
+                return new Rook(color, p);
+            case Bitboard.QUEEN:
+                return new Queen(color, p);
+            default:
+                return new King(color, p);
+        }
+    }
 
+    // Reuses a piece lifted off this board by an earlier loadFen before allocating a new one.
+    private Piece takePiece(Color color, int type, int square) {
+        int code = Bitboard.pieceCode(color, type);
+        if (spareCounts[code] == 0) return createPiece(color, type, square);
+
+        Piece piece = spares[code][--spareCounts[code]];
+        spares[code][spareCounts[code]] = null;
+        return piece;
+    }
+
+    private void removeAllPieces() {
+        long pieces = occupied;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            keepSpare(pieceAt(square));
+            clearSquare(square);
+        }
+    }
+
+    private void keepSpare(Piece piece) {
+        int code = piece.getCode();
+        if (spareCounts[code] == spares[code].length) spares[code] = Arrays.copyOf(spares[code], spares[code].length * 2);
+        spares[code][spareCounts[code]++] = piece;
+    }
+
+    static ChessBoard fromFen(CharSequence fen) {
+        ChessBoard board = new ChessBoard();
+        board.loadFen(fen);
+        return board;
+    }
+
+    static ChessBoard fromFen(ByteBuffer buffer, int offset, int length) {
+        ChessBoard board = new ChessBoard();
+        board.loadFen(buffer, offset, length);
+        return board;
+    }
+
+    // Parses the slice in place through a view this board keeps, so bulk loads make no garbage.
+    void loadFen(ByteBuffer buffer, int offset, int length) {
+        loadFen(fenView.reset(buffer, offset, length));
+    }
+
+    // Replaces the whole position with the one described. The move counters are optional and ignored,
+    // as the board does not keep them. Pieces already on this board are recycled for the new position.
+    // The FEN is read and checked in full first, so one that is rejected leaves the board as it was:
+    // each side needs exactly one king, and the side not to move may not be in check.
+    void loadFen(CharSequence fen) {
+        long[] boards = parsedBoards;
+        Arrays.fill(boards, 0);
+
+        int length = fen.length();
+        int i = 0;
+        int row = 0;
+        int column = 0;
+        for (; i < length && fen.charAt(i) != ' '; i++) {
+            char c = fen.charAt(i);
+            if (c == '/') {
+                if (column != 8) throw badFen(fen, i);
+                row++;
+                column = 0;
+            } else if (c >= '1' && c <= '8') {
+                column += c - '0';
+            } else {
+                int type = FEN_PIECES.indexOf(Character.toLowerCase(c));
+                if (type < 0 || row > 7 || column > 7) throw badFen(fen, i);
+
+                Color color = Character.isUpperCase(c) ? Color.White : Color.Black;
+                boards[Bitboard.pieceCode(color, type)] |= Bitboard.bit(Bitboard.square(row, column));
+                column++;
+            }
+            if (column > 8) throw badFen(fen, i);
+        }
+        if (row != 7 || column != 8) throw badFen(fen, i);
+
+        i = skipSpace(fen, i);
+        if (i >= length || (fen.charAt(i) != 'w' && fen.charAt(i) != 'b')) throw badFen(fen, i);
+        Color toMove = fen.charAt(i++) == 'w' ? Color.White : Color.Black;
+
+        i = skipSpace(fen, i);
+        int rights = 0;
+        if (i < length && fen.charAt(i) == '-') {
+            i++;
+        } else {
+            for (; i < length && fen.charAt(i) != ' '; i++) {
+                int right = FEN_CASTLING.indexOf(fen.charAt(i));
+                if (right < 0) throw badFen(fen, i);
+                rights |= 1 << right;
+            }
+        }
+
+        i = skipSpace(fen, i);
+        int epSquare = -1;
+        if (i < length && fen.charAt(i) != '-') {
+            if (i + 1 >= length) throw badFen(fen, i);
+            int epRow = '8' - fen.charAt(i + 1);
+            int epColumn = fen.charAt(i) - 'a';
+            if (!onBoard(epRow, epColumn)) throw badFen(fen, i);
+            epSquare = Bitboard.square(epRow, epColumn);
+        } else if (i >= length) {
+            throw badFen(fen, i);
+        }
+
+        long occupancy = 0;
+        for (long board : boards) occupancy |= board;
+        for (Color color : Color.values()) {
+            if (Long.bitCount(boards[Bitboard.pieceCode(color, Bitboard.KING)]) != 1)
+                throw new IllegalArgumentException("Bad FEN, " + color + " needs one king: " + fen);
+        }
+        Color waiting = Bitboard.opposite(toMove);
+        int waitingKing = Long.numberOfTrailingZeros(boards[Bitboard.pieceCode(waiting, Bitboard.KING)]);
+        if (attackers(boards, waitingKing, toMove, occupancy) != 0)
+            throw new IllegalArgumentException("Bad FEN, " + waiting + " is in check but not to move: " + fen);
+
+        removeAllPieces();
+        for (int code = 0; code < boards.length; code++) {
+            Color color = (code < Bitboard.PIECE_TYPES) ? Color.Black : Color.White;
+            for (long pieces = boards[code]; pieces != 0; pieces &= pieces - 1) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                placePiece(takePiece(color, code % Bitboard.PIECE_TYPES, square), square);
             }
-            System.out.print("\n");
         }
+        setSideToMove(toMove);
+        // Rights to a castle whose king or rook has gone would let the generator move a missing piece
+        setCastlingRights(rights & castlingStillPossible());
+
+        // Kept only when a pawn can take there, to match what makeMove records
+        if (epSquare >= 0 && (Attacks.pawn(Bitboard.opposite(sideToMove), epSquare)
+                & pieceBoards[Bitboard.pieceCode(sideToMove, Bitboard.PAWN)]) != 0)
+            setEnPassantSquare(epSquare);
+        else
+            setEnPassantSquare(-1);
     }
 
-    private void printTitle() {
-        System.out.print("  ");
-        System.out.print("|");
-        for (int i = 'a'; i < 'i'; i++) {
-            System.out.print(" " + (char) i + " |");
+    private int castlingStillPossible() {
+        int possible = 0;
+        if (isPiece(7, 4, Color.White, Bitboard.KING)) {
+            if (isPiece(7, 7, Color.White, Bitboard.ROOK)) possible |= WHITE_KINGSIDE;
+            if (isPiece(7, 0, Color.White, Bitboard.ROOK)) possible |= WHITE_QUEENSIDE;
+        }
+        if (isPiece(0, 4, Color.Black, Bitboard.KING)) {
+            if (isPiece(0, 7, Color.Black, Bitboard.ROOK)) possible |= BLACK_KINGSIDE;
+            if (isPiece(0, 0, Color.Black, Bitboard.ROOK)) possible |= BLACK_QUEENSIDE;
         }
-        System.out.print("\n");
+        return possible;
+    }
 
-        System.out.print("—".repeat(35) + "\n");
+    private boolean isPiece(int row, int column, Color color, int type) {
+        return ((pieceBoards[Bitboard.pieceCode(color, type)] >>> Bitboard.square(row, column)) & 1) != 0;
     }
 
-    public void printAvailableMoves(HashSet<Position> moves) {
-        printTitle();
+    private static int skipSpace(CharSequence fen, int i) {
+        while (i < fen.length() && fen.charAt(i) == ' ') i++;
+        return i;
+    }
 
-        for (int row = 1; row < 9; row++) {
-            System.out.print(row + " |");
-            for (int col = 0; col < 8; col++) {
+    private static IllegalArgumentException badFen(CharSequence fen, int index) {
+        return new IllegalArgumentException("Bad FEN at " + index + ": " + fen);
+    }
 
-                checkeredPattern(row - 1, col);
-
-//                    System.out.println("Printing something");
-                if (moves.contains(new Position(row - 1, col))) {
-                    System.out.print(outputHelpers.BACKGROUND_CYAN);
-                    if (get(row - 1, col) == null) {
-                        System.out.print(" * ");
-                    } else {
-                        System.out.print(" " + get(row - 1, col).pieceIdentification + " ");
-                    }
-                } else {
-                    if (get(row - 1, col) == null)
-                        System.out.print("   ");
-                    else
-                        System.out.print(" " + get(row - 1, col).pieceIdentification + " ");
+    // Writes the position as FEN. The board keeps no move counters, so they always come out as "0 1".
+    void toFen(Appendable out) throws IOException {
+        for (int row = 0; row < 8; row++) {
+            if (row > 0) out.append('/');
+
+            int empty = 0;
+            for (int column = 0; column < 8; column++) {
+                Piece piece = theBoard[row][column];
+                if (piece == null) {
+                    empty++;
+                    continue;
                 }
+                if (empty > 0) out.append((char) ('0' + empty));
+                empty = 0;
 
-                System.out.print(RESET);
-                System.out.print("|");
-
+                char c = FEN_PIECES.charAt(piece.getType());
+                out.append(piece.getColor() == Color.White ? Character.toUpperCase(c) : c);
             }
-            System.out.print("\n");
+            if (empty > 0) out.append((char) ('0' + empty));
+        }
+
+        out.append(' ').append(sideToMove == Color.White ? 'w' : 'b').append(' ');
+
+        if (castlingRights == 0) out.append('-');
+        for (int right = 0; right < 4; right++) {
+            if ((castlingRights & (1 << right)) != 0) out.append(FEN_CASTLING.charAt(right));
+        }
+
+        out.append(' ');
+        if (enPassantSquare == -1) {
+            out.append('-');
+        } else {
+            out.append((char) ('a' + Bitboard.column(enPassantSquare))).append((char) ('8' - Bitboard.row(enPassantSquare)));
+        }
+        out.append(" 0 1");
+    }
+
+    String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        try {
+            toFen(fen);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fen.toString();
+    }
+
+    // Plays a packed move from MoveList, including castling, en passant and promotion.
+    // Returns the piece it took; MoveStack keeps what unmakeMove needs to reverse it.
+    Piece makeMove(int move) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        int flags = MoveList.flags(move);
+
+        Piece moved = pieceAt(from);
+        Piece taken;
+
+        if (flags == MoveList.EN_PASSANT) {
+            int captured = Bitboard.square(Bitboard.row(from), Bitboard.column(to));
+            taken = pieceAt(captured);
+            clearSquare(captured);
+        } else {
+            taken = pieceAt(to);
+        }
+
+        clearSquare(from);
+        if (MoveList.isPromotion(move)) {
+            setSquare(createPiece(moved.getColor(), MoveList.promotionType(move), to), Bitboard.row(to), Bitboard.column(to));
+        } else {
+            placePiece(moved, to);
+        }
+
+        if (flags == MoveList.KING_CASTLE) {
+            Piece rook = pieceAt(from + 3);
+            clearSquare(from + 3);
+            placePiece(rook, from + 1);
+        } else if (flags == MoveList.QUEEN_CASTLE) {
+            Piece rook = pieceAt(from - 4);
+            clearSquare(from - 4);
+            placePiece(rook, from - 1);
+        }
+
+        int skipped = (from + to) / 2;
+        boolean capturable = flags == MoveList.DOUBLE_PUSH && (Attacks.pawn(moved.getColor(), skipped)
+                & pieceBoards[Bitboard.pieceCode(Bitboard.opposite(moved.getColor()), Bitboard.PAWN)]) != 0;
+
+        setEnPassantSquare(capturable ? skipped : -1);
+        setCastlingRights(castlingRights & CASTLING_MASKS[from] & CASTLING_MASKS[to]);
+        setSideToMove(Bitboard.opposite(sideToMove));
+
+        return taken;
+    }
+
+    void unmakeMove(int move, Piece moved, Piece taken, int previousCastlingRights, int previousEnPassantSquare) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        int flags = MoveList.flags(move);
+
+        clearSquare(to);
+        placePiece(moved, from);
+
+        if (flags == MoveList.EN_PASSANT) {
+            placePiece(taken, Bitboard.square(Bitboard.row(from), Bitboard.column(to)));
+        } else if (taken != null) {
+            placePiece(taken, to);
         }
+
+        if (flags == MoveList.KING_CASTLE) {
+            Piece rook = pieceAt(from + 1);
+            clearSquare(from + 1);
+            placePiece(rook, from + 3);
+        } else if (flags == MoveList.QUEEN_CASTLE) {
+            Piece rook = pieceAt(from - 1);
+            clearSquare(from - 1);
+            placePiece(rook, from - 4);
+        }
+
+        setCastlingRights(previousCastlingRights);
+        setEnPassantSquare(previousEnPassantSquare);
+        setSideToMove(Bitboard.opposite(sideToMove));
+    }
+
+    public void printBoard() {
+        PRINTER.draw(this);
+    }
+
+    public void printAvailableMoves(HashSet<Square> moves) {
+        PRINTER.draw(this, moves);
     }
 
 }
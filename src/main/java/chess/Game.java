@@ -15,7 +15,9 @@
 
 package chess;
 
+import java.nio.ByteBuffer;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 
 enum status {
     DEFAULT,
@@ -24,14 +26,31 @@ enum status {
     INVALIDMOVE,
     INTOCHECK,
     CHECK,
-    CHECKMATE
+    CHECKMATE,
+    STALEMATE
 }
 
 class logic {
+    static final int DEFAULT_TABLE_MEGABYTES = 16;
+
     ChessBoard theBoard;
     WhiteSide whiteSide;
     BlackSide blackSide;
     MoveStack theStack;
+    // Legal moves and check state of the current position, worked out once and kept
+    // until the board's hash or the side to move changes
+    MoveList legalMoves = new MoveList();
+    private boolean inCheck;
+    private long cachedHash;
+    private Color cachedColor;
+
+    private final MoveList scratchMoves = new MoveList();
+    // Results of earlier searches of this game, so transpositions are only searched once
+    TranspositionTable table;
+    // Consulted before any search when set
+    OpeningBook book;
+    // Answer for the endgames they cover, in search and in isItCheckMate, when set
+    Tablebases tablebases;
 
     Color currentColor;
 
@@ -48,44 +67,153 @@ class logic {
         currentColor = Color.White;
     }
 
+    logic(ChessBoard board, Color toMove) {
+        theBoard = board;
+        whiteSide = new WhiteSide();
+        blackSide = new BlackSide();
+
+        theStack = new MoveStack(theBoard);
+
+        theBoard.setSideToMove(toMove);
+        currentColor = toMove;
+    }
+
+    // The same game on private copies of the board and history, sharing this game's table.
+    logic copy() {
+        logic copy = new logic(theBoard.copy(), currentColor);
+        copy.theStack = theStack.copy(copy.theBoard);
+        copy.table = table();
+        copy.book = book;
+        copy.tablebases = tablebases;
+        return copy;
+    }
+
+    // Brings a copy made earlier up to date with other, reusing its board and history.
+    void copyFrom(logic other) {
+        theBoard.copyFrom(other.theBoard);
+        theStack.copyFrom(other.theStack);
+        currentColor = other.currentColor;
+        table = other.table();
+        book = other.book;
+        tablebases = other.tablebases;
+    }
+
+    TranspositionTable table() {
+        if (table == null) table = new TranspositionTable(DEFAULT_TABLE_MEGABYTES);
+        return table;
+    }
+
+    // Starts this game over from the position described, keeping the board, history and table.
+    // A FEN the board rejects leaves the game as it was.
+    void loadFen(CharSequence fen) {
+        theBoard.loadFen(fen);
+        theStack.clear();
+        currentColor = theBoard.sideToMove;
+    }
+
+    void loadFen(ByteBuffer buffer, int offset, int length) {
+        theBoard.loadFen(buffer, offset, length);
+        theStack.clear();
+        currentColor = theBoard.sideToMove;
+    }
+
+    void undo() {
+        theStack.applyUndo();
+        currentColor = theBoard.sideToMove;
+    }
+
+    void skip() {
+        theBoard.setSideToMove(Bitboard.opposite(currentColor));
+        currentColor = theBoard.sideToMove;
+    }
+
+    private void refresh() {
+        if (cachedColor == currentColor && cachedHash == theBoard.hash()) return;
+
+        MoveGenerator.generateLegalMoves(theBoard, currentColor, legalMoves);
+        inCheck = theBoard.isInCheck(currentColor);
+        cachedHash = theBoard.hash();
+        cachedColor = currentColor;
+    }
+
     boolean isItCheck(Color col) {
-        if (col == Color.White) {
-            var z = blackSide.getAllValidMoves(theBoard);
-            return z.contains(whiteSide.findPiece(new King(null, null), theBoard).get(0).currentPosition);
-        } else {
-            var z = whiteSide.getAllValidMoves(theBoard);
-            return z.contains(blackSide.findPiece(new King(null, null), theBoard).get(0).currentPosition);
-        }
+        if (col != currentColor) return theBoard.isInCheck(col);
+        refresh();
+        return inCheck;
     }
 
     // Input Color is the color who may be checkmated on
     boolean isItCheckMate(Color colo) {
+        if (colo != currentColor) return !MoveGenerator.hasLegalMove(theBoard, colo, scratchMoves);
 
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
+        int value = (tablebases == null) ? Tablebases.MISSING : tablebases.probe(theBoard);
+        if (value != Tablebases.MISSING) return Tablebases.isCheckmate(value);
 
-                if (theBoard.get(row, col) != null && theBoard.get(row, col).getColor() == colo) {
-                    for (Position p : theBoard.get(row, col).getAvailableMoves(theBoard)) {
+        refresh();
+        return legalMoves.size() == 0;
+    }
 
-                        theStack.add(new Move(theBoard.get(row, col).getCurrentPosition(), p, theBoard.get(row, col), theBoard.get(p)));
-                        theBoard.move(theBoard.get(row, col), p.row, p.column);
+    // CHECKMATE, STALEMATE, CHECK or DEFAULT for the side to move
+    status state() {
+        refresh();
+        if (legalMoves.size() == 0) return inCheck ? status.CHECKMATE : status.STALEMATE;
+        return inCheck ? status.CHECK : status.DEFAULT;
+    }
 
-                        if (!isItCheck(colo)) {
-                            theStack.applyUndo();
-                            return false;
-                        }
-                        theStack.applyUndo();
-                    }
-                }
+    // The legal move from start to end, promoting to a queen; MoveList.NONE if there is none.
+    int findLegalMove(Square start, Square end) {
+        int from = start.index;
+        int to = end.index;
+
+        refresh();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            if (MoveList.from(move) == from && MoveList.to(move) == to
+                    && (!MoveList.isPromotion(move) || MoveList.promotionType(move) == Bitboard.QUEEN))
+                return move;
+        }
+        return MoveList.NONE;
+    }
+
+    // The legal move written in long algebraic ("e7e8q") or standard algebraic ("e8=Q") notation, or MoveList.NONE.
+    int findMove(CharSequence text) {
+        refresh();
+        int move = MoveList.find(legalMoves, text);
+        return (move != MoveList.NONE) ? move : San.parse(theBoard, legalMoves, text, 0, text.length());
+    }
+
+    // The legal move written in standard algebraic notation between start and end, or MoveList.NONE.
+    int findSanMove(CharSequence san, int start, int end) {
+        refresh();
+        return San.parse(theBoard, legalMoves, san, start, end);
+    }
+
+    // A legal move from the opening book, or MoveList.NONE when there is no book or it has nothing here.
+    int bookMove() {
+        if (book == null) return MoveList.NONE;
+        refresh();
+        return book.pick(theBoard.hash(), legalMoves, ThreadLocalRandom.current().nextLong());
+    }
+
+    // Plays a packed move, as long as it is legal here.
+    status move(int move) {
+        refresh();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            if (legalMoves.get(i) == move) {
+                theStack.apply(move);
+                currentColor = theBoard.sideToMove;
+                return status.DEFAULT;
             }
         }
-        return true;
+        return status.INVALIDMOVE;
     }
 
-    status move(Position start, Position end) {
+    status move(Square start, Square end) {
         Piece p = theBoard.get(start);
 
-        if (isItCheckMate(currentColor)) return status.CHECKMATE;
+        status state = state();
+
+        if (state == status.CHECKMATE || state == status.STALEMATE) return state;
         else if (p == null) {
             return status.NULLMOVE;
         } else if (p instanceof OutOfBoundsPiece) {
@@ -93,20 +221,17 @@ class logic {
         } else if (theBoard.get(start).getColor() != this.currentColor) {
             return status.WRONGCOLOR;
         } else {
-            if (!theBoard.get(start).getAvailableMoves(theBoard).contains(end)) {
+            int move = findLegalMove(start, end);
+
+            if (move == MoveList.NONE) {
+                // The piece could get there, but only by leaving its king in check
+                if (theBoard.get(start).getAvailableMoves(theBoard).contains(end)) return status.INTOCHECK;
                 return status.INVALIDMOVE;
             }
 
-            theStack.add(new Move(start, end, theBoard.get(start), theBoard.get(end)));
-            theBoard.move(theBoard.get(start), end.row, end.column);
-
-            if (isItCheck(currentColor)) {
-                theStack.applyUndo();
-                return status.INTOCHECK;
-            } else {
-                currentColor = (currentColor == Color.White) ? Color.Black : Color.White;
-                return status.DEFAULT;
-            }
+            theStack.apply(move);
+            currentColor = theBoard.sideToMove;
+            return status.DEFAULT;
         }
     }
 }
@@ -116,19 +241,25 @@ public class Game {
     Game() {
     }
 
+    // java chess.Game [uci]
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("uci")) {
+            new Uci(System.out).run(new Scanner(System.in));
+            return;
+        }
+
         Game g = new Game();
         g.listen();
     }
 
-    static Position chessPositionToIndex(char row, char column) {
+    static Square chessPositionToIndex(char row, char column) {
         int theRow = row - '1';
         int theColumn = column - 'a';
 
-        return new Position(theRow, theColumn);
+        return Square.of(theRow, theColumn);
     }
 
-    static String indexToChessPosition(Position p) {
+    static String indexToChessPosition(Square p) {
         if (p == null) return "null";
         char theRow = (char) (p.row + '1');
         char theColumn = (char) (p.column + 'a');
@@ -144,11 +275,12 @@ public class Game {
         Scanner sc = new Scanner(System.in);
         int code = 0;
 
-        l.theBoard.printBoard();
+        // On a terminal the board stays put at the top and only changed squares are redrawn
+        BoardRenderer screen = new BoardRenderer(System.out, System.console() != null);
 
         while (code != 1) {
+            screen.draw(l.theBoard);
             System.out.println(l.currentColor + "'s turn.");
-            l.theBoard.printBoard();
             System.out.print("> ");
 
             String input = sc.nextLine();
@@ -160,7 +292,13 @@ public class Game {
                     code = 1;
                     break;
                 case "print":
-                    l.theBoard.printBoard();
+                    screen.invalidate();
+                    break;
+                case "uci":
+                    // A GUI started us without the argument; hand it the rest of the input
+                    screen.release();
+                    new Uci(System.out).run(sc);
+                    code = 1;
                     break;
 //                case "available":
 //                    if (currentColor == Color.White) {
@@ -171,7 +309,7 @@ public class Game {
 //                    break;
                 case "undo":
                     try {
-                        l.theStack.applyUndo();
+                        l.undo();
                     } catch (GameOutOfMoves e) {
                         System.out.println("Nothing to undo.");
                     } catch (Exception e) {
@@ -179,7 +317,7 @@ public class Game {
                     }
                     break;
                 case "skip":
-                    l.currentColor = (l.currentColor == Color.White) ? Color.Black : Color.White;
+                    l.skip();
                     break;
 //                case "stat": {
 //                    System.out.print("  White  ");
@@ -224,14 +362,14 @@ public class Game {
                     boolean b = input.charAt(0) >= 'a' && input.charAt(0) <= 'h' && (input.charAt(1) >= '1' && input.charAt(1) <= '8');
 
                     /* if (input.length() == 2 && b) {
-                        Position thePosition = chessPositionToIndex(input.charAt(1), input.charAt(0));
+                        Square thePosition = chessPositionToIndex(input.charAt(1), input.charAt(0));
                         System.out.println(l.theBoard.get(thePosition));
                     } else */
                     if (input.length() == 8 && b && input.substring(3, 5).contains("to") && (input.charAt(6) >= 'a' && input.charAt(6) <= 'h' && (input.charAt(7) >= '1' && input.charAt(7) <= '8'))) {
 //                        System.out.println("Valid input");
 
-                        Position oldPosition = chessPositionToIndex(input.charAt(1), input.charAt(0));
-                        Position newPosition = chessPositionToIndex(input.charAt(7), input.charAt(6));
+                        Square oldPosition = chessPositionToIndex(input.charAt(1), input.charAt(0));
+                        Square newPosition = chessPositionToIndex(input.charAt(7), input.charAt(6));
 
                         System.out.println(oldPosition);
                         System.out.println(newPosition);
@@ -280,5 +418,6 @@ public class Game {
                     }
             }
         }
+        screen.release();
     }
 }
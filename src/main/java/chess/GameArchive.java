@@ -0,0 +1,309 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Games stored as their packed 16-bit moves (see MoveList), for replaying without any parsing.
+// All numbers are big-endian.
+//
+//     header   int magic, short version, short unused, long game count, long index offset
+//     games    short plies, byte result, byte FEN length (0 for the usual start), FEN, moves
+//     index    one long file offset per game
+//
+// The reader maps the file and finds any game through the index in constant time.
+//
+//     java chess.GameArchive pack <games.pgn> <archive> [threads]
+//     java chess.GameArchive dump <archive> [game]
+final class GameArchive implements AutoCloseable {
+
+    private static final int MAGIC = 0x43484741;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    // Results, as PGN writes them
+    static final int UNKNOWN = 0;
+    static final int WHITE_WINS = 1;
+    static final int BLACK_WINS = 2;
+    static final int DRAW = 3;
+    private static final String[] RESULTS = {"*", "1-0", "0-1", "1/2-1/2"};
+
+    static final int MAX_PLIES = 0xffff;
+    private static final int MAX_FEN_BYTES = 0xff;
+
+    // The file is mapped in regions this long, each running on past its end by more than the
+    // longest game record, so every record lies wholly inside the region it starts in
+    private static final long REGION_BYTES = 1L << 30;
+    private static final long REGION_OVERLAP = 4 + MAX_FEN_BYTES + 2L * MAX_PLIES + 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long games;
+    private final long indexOffset;
+
+    private GameArchive(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < HEADER_BYTES) throw new IOException(path + " is not a game archive");
+
+        regions = new MappedByteBuffer[(int) ((size - 1) / REGION_BYTES) + 1];
+        for (int i = 0; i < regions.length; i++) {
+            long start = i * REGION_BYTES;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_BYTES + REGION_OVERLAP, size - start));
+        }
+
+        if (regions[0].getInt(0) != MAGIC || regions[0].getShort(4) != VERSION)
+            throw new IOException(path + " is not a game archive");
+        games = regions[0].getLong(8);
+        indexOffset = regions[0].getLong(16);
+    }
+
+    static GameArchive open(Path path) throws IOException {
+        return new GameArchive(path);
+    }
+
+    static int result(String text) {
+        int result = Arrays.asList(RESULTS).indexOf(text);
+        return (result < 0) ? UNKNOWN : result;
+    }
+
+    static String resultText(int result) {
+        return RESULTS[result];
+    }
+
+    long size() {
+        return games;
+    }
+
+    int plies(long game) {
+        long offset = offset(game);
+        return region(offset).getShort(position(offset)) & 0xffff;
+    }
+
+    int result(long game) {
+        long offset = offset(game);
+        return region(offset).get(position(offset) + 2);
+    }
+
+    // The packed move played at the given ply of the game
+    int move(long game, int ply) {
+        long offset = offset(game);
+        ByteBuffer region = region(offset);
+        int at = position(offset);
+        return region.getShort(at + 4 + (region.get(at + 3) & 0xff) + 2 * ply) & 0xffff;
+    }
+
+    // Sets the game up from its first position and plays all of its moves, trusting them to be legal.
+    void replay(long game, logic into) {
+        long offset = offset(game);
+        ByteBuffer region = region(offset);
+        int at = position(offset);
+
+        int plies = region.getShort(at) & 0xffff;
+        int fenLength = region.get(at + 3) & 0xff;
+        if (fenLength == 0) into.loadFen(ChessBoard.START_FEN);
+        else into.loadFen(region, at + 4, fenLength);
+
+        int moves = at + 4 + fenLength;
+        for (int ply = 0; ply < plies; ply++) into.theStack.apply(region.getShort(moves + 2 * ply) & 0xffff);
+        into.currentColor = into.theBoard.sideToMove;
+    }
+
+    private long offset(long game) {
+        if (game < 0 || game >= games) throw new IndexOutOfBoundsException("Game " + game + " of " + games);
+        long entry = indexOffset + 8 * game;
+        return region(entry).getLong(position(entry));
+    }
+
+    private ByteBuffer region(long offset) {
+        return regions[(int) (offset / REGION_BYTES)];
+    }
+
+    private static int position(long offset) {
+        return (int) (offset % REGION_BYTES);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Appends games one after another and writes the index and header on close.
+    static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private long position = HEADER_BYTES;
+        private long[] offsets = new long[1024];
+        private long games;
+
+        Writer(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);
+        }
+
+        // Writes the moves in the game's history. startFen is where the game began, null for the usual start.
+        void add(logic game, CharSequence startFen, int result) throws IOException {
+            MoveStack stack = game.theStack;
+            begin(startFen, stack.size(), result);
+            for (int ply = 0; ply < stack.size(); ply++) putShort(stack.moveAt(ply));
+        }
+
+        void add(CharSequence startFen, int[] moves, int plies, int result) throws IOException {
+            begin(startFen, plies, result);
+            for (int ply = 0; ply < plies; ply++) putShort(moves[ply]);
+        }
+
+        private void begin(CharSequence startFen, int plies, int result) throws IOException {
+            int fenLength = (startFen == null) ? 0 : startFen.length();
+            if (plies > MAX_PLIES) throw new IllegalArgumentException("Game of " + plies + " plies is too long to archive");
+            if (fenLength > MAX_FEN_BYTES) throw new IllegalArgumentException("FEN too long: " + startFen);
+
+            if (games == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[(int) games++] = position;
+
+            putShort(plies);
+            put(result);
+            put(fenLength);
+            for (int i = 0; i < fenLength; i++) put(startFen.charAt(i));
+        }
+
+        private void put(int b) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) b);
+            position++;
+        }
+
+        private void putShort(int s) throws IOException {
+            if (buffer.remaining() < 2) flush();
+            buffer.putShort((short) s);
+            position += 2;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long indexOffset = position;
+                for (int i = 0; i < games; i++) {
+                    if (buffer.remaining() < 8) flush();
+                    buffer.putLong(offsets[i]);
+                }
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(games).putLong(indexOffset).flip();
+                while (header.hasRemaining()) channel.write(header, header.position());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("pack")) {
+            pack(Paths.get(args[1]), Paths.get(args[2]),
+                    (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+        } else if (args.length >= 2 && args[0].equals("dump")) {
+            dump(Paths.get(args[1]), (args.length > 2) ? Long.parseLong(args[2]) : -1);
+        } else {
+            System.err.println("usage: GameArchive pack <games.pgn> <archive> [threads] | dump <archive> [game]");
+            System.exit(2);
+        }
+    }
+
+    // What a pool thread keeps of a game for the writer; only the number and error for a game the reader gave up on
+    private static final class Moves {
+        final long number;
+        final String startFen;
+        final int[] moves;
+        final int result;
+        final String error;
+
+        Moves(long number, String startFen, int[] moves, int result, String error) {
+            this.number = number;
+            this.startFen = startFen;
+            this.moves = moves;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private static void pack(Path pgn, Path archive, int threads) throws IOException {
+        long started = System.nanoTime();
+        try (PgnReader reader = new PgnReader(threads);
+             InputStream in = Files.newInputStream(pgn);
+             Writer writer = new Writer(archive)) {
+            // Only the calling thread writes and counts
+            long[] skipped = new long[1];
+            long games = reader.read(in, record -> {
+                if (record.error != null) return new Moves(record.number, null, null, UNKNOWN, record.error);
+
+                MoveStack stack = record.game.theStack;
+                int[] moves = new int[stack.size()];
+                for (int ply = 0; ply < moves.length; ply++) moves[ply] = stack.moveAt(ply);
+                return new Moves(record.number, record.startFen, moves, result(record.result), null);
+            }, game -> {
+                // A game cut short would be stored as if it had ended there
+                if (game.error != null) {
+                    skipped[0]++;
+                    System.err.println("game " + game.number + " skipped: " + game.error);
+                    return;
+                }
+                try {
+                    writer.add(game.startFen, game.moves, game.moves.length, game.result);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            System.err.printf("%d games packed, %d skipped in %.1f s%n", games - skipped[0], skipped[0],
+                    (System.nanoTime() - started) / 1e9);
+        }
+        System.err.printf("%d bytes of PGN, %d bytes archived%n", Files.size(pgn), Files.size(archive));
+    }
+
+    private static void dump(Path path, long only) throws IOException {
+        try (GameArchive archive = open(path)) {
+            logic game = new logic(new ChessBoard(), Color.White);
+            StringBuilder line = new StringBuilder();
+
+            for (long i = (only < 0) ? 0 : only; i < ((only < 0) ? archive.size() : only + 1); i++) {
+                archive.replay(i, game);
+
+                line.setLength(0);
+                line.append(i).append(' ').append(resultText(archive.result(i)));
+                for (int ply = 0; ply < archive.plies(i); ply++) line.append(' ').append(MoveList.toString(archive.move(i, ply)));
+                line.append(" ; ").append(game.theBoard.toFen());
+                System.out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hosts many games at once. Each game is a logic of its own, served by its own virtual
+// thread from a small mailbox, so a game only ever sees one request at a time and an idle
+// game costs a parked virtual thread. Requests are routed by game ID. A full mailbox turns
+// new requests away at once instead of queueing without bound; that is the backpressure
+// callers see. All games share one transposition table for their engine moves, and borrow
+// a Search from a pool with one for each carrier thread, as no more can run at once.
+//
+//     java chess.GameService [games] [plies] [depth]
+final class GameService implements AutoCloseable {
+
+    // Requests a game may have waiting before new ones are turned away
+    static final int MAILBOX_CAPACITY = 16;
+
+    // What a request did: the resulting state and the move played, MoveList.NONE if none was
+    static final class Reply {
+        final status state;
+        final int move;
+
+        Reply(status state, int move) {
+            this.state = state;
+            this.move = move;
+        }
+    }
+
+    // Per game numbers, from submission to reply, queueing included
+    static final class Stats {
+        final long requests;
+        final long totalNanos;
+        final long maxNanos;
+        final int queued;
+
+        Stats(long requests, long totalNanos, long maxNanos, int queued) {
+            this.requests = requests;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.queued = queued;
+        }
+
+        double meanMicros() {
+            return (requests == 0) ? 0 : totalNanos / 1e3 / requests;
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests, mean " + Math.round(meanMicros()) + " us, max " + maxNanos / 1000 + " us, "
+                    + queued + " queued";
+        }
+    }
+
+    private static final class Request {
+        // Long or standard algebraic notation; null asks the engine to move
+        final String move;
+        final int depth;
+        final long nodes;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<Reply> reply = new CompletableFuture<>();
+
+        Request(String move, int depth, long nodes) {
+            this.move = move;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+    }
+
+    private final class Session implements Runnable {
+        final long id;
+        final logic game;
+        final ArrayBlockingQueue<Request> mailbox = new ArrayBlockingQueue<>(MAILBOX_CAPACITY);
+        Thread thread;
+        // Set by end before the mailbox is emptied for the last time
+        volatile boolean closed;
+
+        // Written only by the game's own thread
+        private volatile long requests;
+        private volatile long totalNanos;
+        private volatile long maxNanos;
+
+        Session(long id, logic game) {
+            this.id = id;
+            this.game = game;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) handle(mailbox.take());
+            } catch (InterruptedException e) {
+                // The game was ended
+            }
+            cancelWaiting();
+        }
+
+        void cancelWaiting() {
+            for (Request request = mailbox.poll(); request != null; request = mailbox.poll()) cancel(request);
+        }
+
+        void cancel(Request request) {
+            request.reply.completeExceptionally(new CancellationException("game " + id + " ended"));
+        }
+
+        private void handle(Request request) {
+            Reply reply;
+            try {
+                reply = (request.move == null) ? engineMove(request) : playerMove(request.move);
+            } catch (RuntimeException e) {
+                request.reply.completeExceptionally(e);
+                return;
+            }
+
+            long nanos = System.nanoTime() - request.submitted;
+            requests++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+
+            request.reply.complete(reply);
+        }
+
+        private Reply playerMove(String text) {
+            status state = game.state();
+            if (state == status.CHECKMATE || state == status.STALEMATE) return new Reply(state, MoveList.NONE);
+
+            int move = game.findMove(text);
+            if (move == MoveList.NONE) return new Reply(status.INVALIDMOVE, MoveList.NONE);
+
+            game.move(move);
+            return new Reply(game.state(), move);
+        }
+
+        private Reply engineMove(Request request) {
+            status state = game.state();
+            if (state == status.CHECKMATE || state == status.STALEMATE) return new Reply(state, MoveList.NONE);
+
+            Search search;
+            try {
+                search = searches.take();
+            } catch (InterruptedException e) {
+                // The game was ended; the run loop sees the interrupt again
+                Thread.currentThread().interrupt();
+                throw new CancellationException("game " + id + " ended");
+            }
+            int move;
+            try {
+                search.attach(game);
+                move = search.search(request.depth, request.nodes).move;
+            } finally {
+                searches.add(search);
+            }
+            game.move(move);
+            return new Reply(game.state(), move);
+        }
+
+        Stats stats() {
+            return new Stats(requests, totalNanos, maxNanos, mailbox.size());
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // Games hosted or being created; a slot is taken before the game is made and given back when it ends
+    private final AtomicInteger slots = new AtomicInteger();
+    private final TranspositionTable table;
+    private final int maxGames;
+    // A Search is half a megabyte, too much to make for every move of every game
+    private final ArrayBlockingQueue<Search> searches;
+
+    private final LongAdder rejected = new LongAdder();
+
+    GameService(int maxGames, int tableMegabytes) {
+        this.maxGames = maxGames;
+        this.table = new TranspositionTable(tableMegabytes);
+
+        int carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+        this.searches = new ArrayBlockingQueue<>(carriers);
+        // Each is attached to the game it searches when borrowed
+        for (int i = 0; i < carriers; i++) searches.add(new Search(new logic(new ChessBoard(), Color.White)));
+    }
+
+    long create() {
+        return create(ChessBoard.START_FEN);
+    }
+
+    // Starts a game from the position and returns its ID.
+    long create(CharSequence fen) {
+        if (slots.incrementAndGet() > maxGames) {
+            slots.decrementAndGet();
+            throw new RejectedExecutionException("already hosting " + maxGames + " games");
+        }
+
+        ChessBoard board;
+        try {
+            board = ChessBoard.fromFen(fen);
+        } catch (RuntimeException e) {
+            slots.decrementAndGet();
+            throw e;
+        }
+        logic game = new logic(board, board.sideToMove);
+        game.table = table;
+
+        Session session = new Session(nextId.getAndIncrement(), game);
+        // Started before it can be found, so end never sees a session without its thread
+        session.thread = Thread.ofVirtual().name("game-" + session.id).unstarted(session);
+        sessions.put(session.id, session);
+        session.thread.start();
+        return session.id;
+    }
+
+    // Plays the move for whoever is to move. Fails with RejectedExecutionException when the
+    // game's mailbox is full, and with IllegalArgumentException when there is no such game.
+    CompletableFuture<Reply> move(long gameId, String move) {
+        return submit(gameId, new Request(move, 0, 0));
+    }
+
+    // Lets the engine pick and play a move, searching to depth or nodes, whichever comes first.
+    CompletableFuture<Reply> engineMove(long gameId, int depth, long nodes) {
+        return submit(gameId, new Request(null, depth, nodes));
+    }
+
+    private CompletableFuture<Reply> submit(long gameId, Request request) {
+        Session session = sessions.get(gameId);
+        if (session == null) return CompletableFuture.failedFuture(new IllegalArgumentException("no game " + gameId));
+
+        if (!session.mailbox.offer(request)) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("game " + gameId + " is busy"));
+        }
+        // The game may have ended after it was looked up and its mailbox been emptied for the
+        // last time; whoever takes the request out of the mailbox answers it
+        if (session.closed && session.mailbox.remove(request)) session.cancel(request);
+        return request.reply;
+    }
+
+    // Stops the game's thread. Requests still waiting fail with CancellationException.
+    void end(long gameId) {
+        Session session = sessions.remove(gameId);
+        if (session == null) return;
+
+        session.closed = true;
+        session.thread.interrupt();
+        session.cancelWaiting();
+        slots.decrementAndGet();
+    }
+
+    Stats stats(long gameId) {
+        Session session = sessions.get(gameId);
+        return (session == null) ? null : session.stats();
+    }
+
+    int games() {
+        return sessions.size();
+    }
+
+    // Requests turned away because a mailbox was full
+    long rejected() {
+        return rejected.sum();
+    }
+
+    // Requests waiting across every game
+    long queued() {
+        long queued = 0;
+        for (Session session : sessions.values()) queued += session.mailbox.size();
+        return queued;
+    }
+
+    @Override
+    public void close() {
+        for (Long id : new ArrayList<>(sessions.keySet())) end(id);
+    }
+
+    // Load test: plays every game out to the given number of plies with engine moves, all at once.
+    public static void main(String[] args) throws Exception {
+        int games = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000;
+        int plies = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+
+        try (GameService service = new GameService(games, 64)) {
+            long started = System.nanoTime();
+
+            long[] ids = new long[games];
+            for (int i = 0; i < games; i++) ids[i] = service.create();
+
+            CompletableFuture<?>[] done = new CompletableFuture<?>[games];
+            for (int i = 0; i < games; i++) done[i] = playOut(service, ids[i], plies, depth);
+            CompletableFuture.allOf(done).join();
+
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long requests = 0;
+            long totalNanos = 0;
+            long maxNanos = 0;
+            for (long id : ids) {
+                Stats stats = service.stats(id);
+                requests += stats.requests;
+                totalNanos += stats.totalNanos;
+                maxNanos = Math.max(maxNanos, stats.maxNanos);
+            }
+
+            System.err.printf("%d games, %d moves in %.1f s: %.0f moves/s, mean latency %.0f us, max %d us, %d rejected%n",
+                    games, requests, seconds, requests / seconds, totalNanos / 1e3 / Math.max(requests, 1),
+                    maxNanos / 1000, service.rejected());
+        }
+    }
+
+    private static CompletableFuture<Reply> playOut(GameService service, long id, int plies, int depth) {
+        CompletableFuture<Reply> reply = service.engineMove(id, depth, Long.MAX_VALUE);
+        if (plies <= 1) return reply;
+        return reply.thenCompose(r -> (r.move == MoveList.NONE) ? CompletableFuture.completedFuture(r)
+                : playOut(service, id, plies - 1, depth));
+    }
+}
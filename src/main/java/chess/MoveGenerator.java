@@ -0,0 +1,204 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Emits strictly legal moves. Checkers and pinned pieces are worked out once per
+// position, so no move has to be made and unmade to see if it leaves the king in check.
+final class MoveGenerator {
+
+    private MoveGenerator() {
+    }
+
+    static void generateLegalMoves(ChessBoard board, Color us, MoveList moves) {
+        generate(board, us, moves, false);
+    }
+
+    // Stops at the first legal move it finds: all that checkmate and stalemate tests need.
+    static boolean hasLegalMove(ChessBoard board, Color us, MoveList scratch) {
+        generate(board, us, scratch, true);
+        return scratch.size() > 0;
+    }
+
+    private static void generate(ChessBoard board, Color us, MoveList moves, boolean firstOnly) {
+        moves.clear();
+
+        Color them = Bitboard.opposite(us);
+        int king = board.kingSquares[us.ordinal()];
+        if (king == -1) return;
+
+        long ours = board.colorBoards[us.ordinal()];
+        long theirs = board.colorBoards[them.ordinal()];
+        long occupied = board.occupied;
+
+        long checkers = board.attackersTo(king, them, occupied);
+
+        // The king may not step onto an attacked square, nor slide along the checking ray.
+        long targets = Attacks.KING[king] & ~ours;
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (board.attackersTo(to, them, occupied ^ Bitboard.bit(king)) == 0)
+                moves.add(MoveList.encode(king, to, ((theirs >>> to) & 1) != 0 ? MoveList.CAPTURE : MoveList.QUIET));
+        }
+
+        // Only the king can answer a double check
+        if (Long.bitCount(checkers) > 1 || (firstOnly && moves.size() > 0)) return;
+
+        long evasions = -1L;
+        if (checkers != 0) {
+            int checker = Long.numberOfTrailingZeros(checkers);
+            evasions = checkers | Attacks.BETWEEN[king][checker];
+        }
+
+        long pinned = pinnedPieces(board, us, king);
+
+        int side = us.ordinal() * Bitboard.PIECE_TYPES;
+
+        long knights = board.pieceBoards[side + Bitboard.KNIGHT] & ~pinned;
+        while (knights != 0) {
+            int from = Long.numberOfTrailingZeros(knights);
+            knights &= knights - 1;
+            addTargets(moves, from, Attacks.KNIGHT[from] & ~ours & evasions, theirs);
+        }
+        if (firstOnly && moves.size() > 0) return;
+
+        long diagonal = board.pieceBoards[side + Bitboard.BISHOP] | board.pieceBoards[side + Bitboard.QUEEN];
+        while (diagonal != 0) {
+            int from = Long.numberOfTrailingZeros(diagonal);
+            diagonal &= diagonal - 1;
+            addTargets(moves, from, Attacks.bishop(from, occupied) & ~ours & allowed(from, king, pinned, evasions), theirs);
+        }
+        if (firstOnly && moves.size() > 0) return;
+
+        long straight = board.pieceBoards[side + Bitboard.ROOK] | board.pieceBoards[side + Bitboard.QUEEN];
+        while (straight != 0) {
+            int from = Long.numberOfTrailingZeros(straight);
+            straight &= straight - 1;
+            addTargets(moves, from, Attacks.rook(from, occupied) & ~ours & allowed(from, king, pinned, evasions), theirs);
+        }
+        if (firstOnly && moves.size() > 0) return;
+
+        addPawnMoves(board, us, king, pinned, evasions, moves);
+
+        // Castling last: it costs several attack probes and never matters when any other move exists
+        if (checkers == 0 && !(firstOnly && moves.size() > 0)) addCastles(board, us, king, moves);
+    }
+
+    // Where a piece may go without exposing its king: anywhere on the evasion mask,
+    // narrowed to the line through the king if the piece is pinned.
+    private static long allowed(int from, int king, long pinned, long evasions) {
+        if (((pinned >>> from) & 1) == 0) return evasions;
+        return evasions & Attacks.LINE[king][from];
+    }
+
+    private static long pinnedPieces(ChessBoard board, Color us, int king) {
+        int side = Bitboard.opposite(us).ordinal() * Bitboard.PIECE_TYPES;
+        long queens = board.pieceBoards[side + Bitboard.QUEEN];
+
+        long snipers = (Attacks.rook(king, 0) & (board.pieceBoards[side + Bitboard.ROOK] | queens))
+                | (Attacks.bishop(king, 0) & (board.pieceBoards[side + Bitboard.BISHOP] | queens));
+
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+
+            long blockers = Attacks.BETWEEN[king][sniper] & board.occupied;
+            if (Long.bitCount(blockers) == 1) pinned |= blockers & board.colorBoards[us.ordinal()];
+        }
+        return pinned;
+    }
+
+    private static void addTargets(MoveList moves, int from, long targets, long theirs) {
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            moves.add(MoveList.encode(from, to, ((theirs >>> to) & 1) != 0 ? MoveList.CAPTURE : MoveList.QUIET));
+        }
+    }
+
+    private static void addPawnMoves(ChessBoard board, Color us, int king, long pinned, long evasions, MoveList moves) {
+        // White pawns start on row 6 and walk towards row 0
+        int forward = (us == Color.White) ? -8 : 8;
+        int startingRow = (us == Color.White) ? 6 : 1;
+        int lastRow = (us == Color.White) ? 0 : 7;
+
+        long theirs = board.colorBoards[Bitboard.opposite(us).ordinal()];
+
+        long pawns = board.pieceBoards[Bitboard.pieceCode(us, Bitboard.PAWN)];
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+
+            long allowed = allowed(from, king, pinned, evasions);
+
+            int one = from + forward;
+            if (((board.occupied >>> one) & 1) == 0) {
+                if (((allowed >>> one) & 1) != 0) addPawnMove(moves, from, one, MoveList.QUIET, lastRow);
+
+                int two = one + forward;
+                if (Bitboard.row(from) == startingRow && ((board.occupied >>> two) & 1) == 0 && ((allowed >>> two) & 1) != 0)
+                    moves.add(MoveList.encode(from, two, MoveList.DOUBLE_PUSH));
+            }
+
+            long captures = Attacks.pawn(us, from) & theirs & allowed;
+            while (captures != 0) {
+                int to = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                addPawnMove(moves, from, to, MoveList.CAPTURE, lastRow);
+            }
+
+            int enPassant = board.enPassantSquare;
+            if (enPassant != -1 && ((Attacks.pawn(us, from) >>> enPassant) & 1) != 0
+                    && enPassantIsLegal(board, us, king, from, enPassant, enPassant - forward))
+                moves.add(MoveList.encode(from, enPassant, MoveList.EN_PASSANT));
+        }
+    }
+
+    private static void addPawnMove(MoveList moves, int from, int to, int flags, int lastRow) {
+        if (Bitboard.row(to) != lastRow) {
+            moves.add(MoveList.encode(from, to, flags));
+            return;
+        }
+
+        for (int piece = 3; piece >= 0; piece--) {
+            moves.add(MoveList.encode(from, to, flags | MoveList.PROMOTION | piece));
+        }
+    }
+
+    // En passant takes two pawns off one row at once, which the pin mask cannot see,
+    // so it is checked against the occupancy after the capture.
+    private static boolean enPassantIsLegal(ChessBoard board, Color us, int king, int from, int to, int captured) {
+        long occupied = (board.occupied ^ Bitboard.bit(from) ^ Bitboard.bit(captured)) | Bitboard.bit(to);
+        return (board.attackersTo(king, Bitboard.opposite(us), occupied) & ~Bitboard.bit(captured)) == 0;
+    }
+
+    private static void addCastles(ChessBoard board, Color us, int king, MoveList moves) {
+        int kingside = (us == Color.White) ? ChessBoard.WHITE_KINGSIDE : ChessBoard.BLACK_KINGSIDE;
+        int queenside = (us == Color.White) ? ChessBoard.WHITE_QUEENSIDE : ChessBoard.BLACK_QUEENSIDE;
+        Color them = Bitboard.opposite(us);
+
+        if ((board.castlingRights & kingside) != 0
+                && (board.occupied & (Bitboard.bit(king + 1) | Bitboard.bit(king + 2))) == 0
+                && !board.isSquareAttacked(king + 1, them) && !board.isSquareAttacked(king + 2, them))
+            moves.add(MoveList.encode(king, king + 2, MoveList.KING_CASTLE));
+
+        if ((board.castlingRights & queenside) != 0
+                && (board.occupied & (Bitboard.bit(king - 1) | Bitboard.bit(king - 2) | Bitboard.bit(king - 3))) == 0
+                && !board.isSquareAttacked(king - 1, them) && !board.isSquareAttacked(king - 2, them))
+            moves.add(MoveList.encode(king, king - 2, MoveList.QUEEN_CASTLE));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// A reusable buffer of moves packed into ints: bits 0-5 hold the starting square,
+// bits 6-11 the destination square and bits 12-15 the flags below.
+final class MoveList {
+
+    static final int QUIET = 0;
+    static final int DOUBLE_PUSH = 1;
+    static final int KING_CASTLE = 2;
+    static final int QUEEN_CASTLE = 3;
+    static final int CAPTURE = 4;
+    static final int EN_PASSANT = 5;
+    // The low two bits of a promotion pick the new piece, from knight (0) to queen (3)
+    static final int PROMOTION = 8;
+
+    static final int NONE = 0;
+
+    // More than any reachable position has
+    static final int CAPACITY = 256;
+
+    private final int[] moves = new int[CAPACITY];
+    private int size;
+
+    static int encode(int from, int to, int flags) {
+        return from | (to << 6) | (flags << 12);
+    }
+
+    static int from(int move) {
+        return move & 63;
+    }
+
+    static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    static int flags(int move) {
+        return move >>> 12;
+    }
+
+    static boolean isCapture(int move) {
+        return (flags(move) & CAPTURE) != 0;
+    }
+
+    static boolean isPromotion(int move) {
+        return (flags(move) & PROMOTION) != 0;
+    }
+
+    static int promotionType(int move) {
+        return Bitboard.KNIGHT + (flags(move) & 3);
+    }
+
+    static boolean isCastle(int move) {
+        int flags = flags(move);
+        return flags == KING_CASTLE || flags == QUEEN_CASTLE;
+    }
+
+    // Long algebraic notation in standard coordinates, where rank 1 is row 7: "e2e4", "e7e8q".
+    static String toString(int move) {
+        if (move == NONE) return "0000";
+
+        StringBuilder sb = new StringBuilder(5);
+        appendSquare(sb, from(move));
+        appendSquare(sb, to(move));
+        if (isPromotion(move)) sb.append("nbrq".charAt(promotionType(move) - Bitboard.KNIGHT));
+        return sb.toString();
+    }
+
+    // The move in the list that toString would write as text, or NONE.
+    static int find(MoveList legal, CharSequence text) {
+        if (text.length() < 4 || text.length() > 5) return NONE;
+        int from = parseSquare(text, 0);
+        int to = parseSquare(text, 2);
+        int promotion = (text.length() == 5) ? Bitboard.KNIGHT + "nbrq".indexOf(Character.toLowerCase(text.charAt(4))) : -1;
+        if (from < 0 || to < 0 || promotion == Bitboard.KNIGHT - 1) return NONE;
+
+        for (int i = 0; i < legal.size(); i++) {
+            int move = legal.get(i);
+            if (from(move) == from && to(move) == to && (isPromotion(move) ? promotionType(move) == promotion : promotion == -1))
+                return move;
+        }
+        return NONE;
+    }
+
+    private static int parseSquare(CharSequence text, int at) {
+        int column = text.charAt(at) - 'a';
+        int row = '8' - text.charAt(at + 1);
+        return (column >= 0 && column < 8 && row >= 0 && row < 8) ? Bitboard.square(row, column) : -1;
+    }
+
+    static void appendSquare(StringBuilder sb, int square) {
+        sb.append((char) ('a' + Bitboard.column(square))).append((char) ('8' - Bitboard.row(square)));
+    }
+
+    void add(int move) {
+        moves[size++] = move;
+    }
+
+    int get(int index) {
+        return moves[index];
+    }
+
+    void set(int index, int move) {
+        moves[index] = move;
+    }
+
+    void swap(int i, int j) {
+        int move = moves[i];
+        moves[i] = moves[j];
+        moves[j] = move;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Hands out the moves of one node in the order most likely to cut the search short: the
+// hash move, captures that do not lose material (most valuable victim, least valuable
+// attacker), the two killer moves, the counter move, the quiet moves by history score and
+// last the losing captures. The legal moves are generated up front, but each stage only
+// finds its next best move when asked, so a cutoff early on leaves the rest unsorted.
+// One picker per ply of a Search; nothing here is shared between threads.
+final class MovePicker {
+
+    private static final int HASH = 0;
+    private static final int GOOD_CAPTURES = 1;
+    private static final int FIRST_KILLER = 2;
+    private static final int SECOND_KILLER = 3;
+    private static final int COUNTER = 4;
+    private static final int QUIETS = 5;
+    private static final int BAD_CAPTURES = 6;
+    private static final int DONE = 7;
+
+    // For exchanges, by Bitboard piece type
+    static final int[] SEE_VALUES = {100, 320, 330, 500, 900, 20000};
+
+    final MoveList moves = new MoveList();
+    private final int[] scores = new int[MoveList.CAPACITY];
+
+    private ChessBoard board;
+    private int[][] history;
+    private boolean capturesOnly;
+
+    private int stage;
+    // moves holds the captures and promotions first and the quiet moves from quietStart on;
+    // each part is handed out from its own cursor
+    private int quietStart;
+    private int nextCapture;
+    private int nextQuiet;
+
+    private int hashMove;
+    private int firstKiller;
+    private int secondKiller;
+    private int counterMove;
+
+    // Gains of the exchange at each capture, for see
+    private final int[] gains = new int[32];
+
+    // Starts handing out the legal moves already generated into moves.
+    void start(ChessBoard board, int hashMove, int firstKiller, int secondKiller, int counterMove, int[][] history) {
+        this.board = board;
+        this.history = history;
+        this.capturesOnly = false;
+        this.hashMove = hashMove;
+        this.firstKiller = firstKiller;
+        this.secondKiller = secondKiller;
+        this.counterMove = counterMove;
+        partition();
+        stage = HASH;
+    }
+
+    // Starts handing out only the captures and promotions in moves that do not lose material.
+    void startCaptures(ChessBoard board) {
+        this.board = board;
+        this.history = null;
+        this.capturesOnly = true;
+        this.hashMove = MoveList.NONE;
+        this.firstKiller = MoveList.NONE;
+        this.secondKiller = MoveList.NONE;
+        this.counterMove = MoveList.NONE;
+        partition();
+        stage = GOOD_CAPTURES;
+    }
+
+    static boolean isQuiet(int move) {
+        return !MoveList.isCapture(move) && !MoveList.isPromotion(move);
+    }
+
+    // The next move to search, or MoveList.NONE when there are no more.
+    int next() {
+        while (true) {
+            switch (stage) {
+                case HASH:
+                    stage = GOOD_CAPTURES;
+                    if (hashMove != MoveList.NONE && contains(0, moves.size(), hashMove)) return hashMove;
+                    hashMove = MoveList.NONE;
+                    break;
+
+                case GOOD_CAPTURES:
+                    if (pickBest(nextCapture, quietStart) && scores[nextCapture] >= 0) {
+                        int move = moves.get(nextCapture++);
+                        if (move != hashMove) return move;
+                        break;
+                    }
+                    // The rest lose material: they wait until after the quiet moves
+                    stage = capturesOnly ? DONE : FIRST_KILLER;
+                    break;
+
+                case FIRST_KILLER:
+                    stage = SECOND_KILLER;
+                    if (isUnplayedQuiet(firstKiller)) return firstKiller;
+                    firstKiller = MoveList.NONE;
+                    break;
+
+                case SECOND_KILLER:
+                    stage = COUNTER;
+                    if (secondKiller != firstKiller && isUnplayedQuiet(secondKiller)) return secondKiller;
+                    secondKiller = MoveList.NONE;
+                    break;
+
+                case COUNTER:
+                    stage = QUIETS;
+                    for (int i = quietStart; i < moves.size(); i++) scores[i] = historyScore(moves.get(i));
+                    if (counterMove != firstKiller && counterMove != secondKiller && isUnplayedQuiet(counterMove))
+                        return counterMove;
+                    counterMove = MoveList.NONE;
+                    break;
+
+                case QUIETS:
+                    if (pickBest(nextQuiet, moves.size())) {
+                        int move = moves.get(nextQuiet++);
+                        if (move != hashMove && move != firstKiller && move != secondKiller && move != counterMove) return move;
+                        break;
+                    }
+                    stage = BAD_CAPTURES;
+                    break;
+
+                case BAD_CAPTURES:
+                    if (pickBest(nextCapture, quietStart)) {
+                        int move = moves.get(nextCapture++);
+                        if (move != hashMove) return move;
+                        break;
+                    }
+                    stage = DONE;
+                    break;
+
+                default:
+                    return MoveList.NONE;
+            }
+        }
+    }
+
+    // Captures first, each scored by victim and attacker, with the losing ones pushed below zero
+    private void partition() {
+        int count = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            if (!isQuiet(moves.get(i))) moves.swap(count++, i);
+        }
+        quietStart = count;
+        nextCapture = 0;
+        nextQuiet = count;
+
+        for (int i = 0; i < count; i++) {
+            int move = moves.get(i);
+            Piece victim = board.pieceAt(MoveList.to(move));
+            int victimType = (victim == null) ? (MoveList.isCapture(move) ? Bitboard.PAWN : -1) : victim.getType();
+            int attackerType = board.pieceAt(MoveList.from(move)).getType();
+
+            int score = 64 * (victimType + 1) + 8 * (MoveList.isPromotion(move) ? MoveList.promotionType(move) : 0) - attackerType;
+            // Taking something at least as valuable can not lose material; anything else is checked
+            if (victimType < 0 || SEE_VALUES[attackerType] > SEE_VALUES[victimType]) {
+                if (see(move) < 0) score -= 1 << 16;
+            }
+            scores[i] = score;
+        }
+    }
+
+    private int historyScore(int move) {
+        return history[board.pieceAt(MoveList.from(move)).getCode()][MoveList.to(move)];
+    }
+
+    // Selection sort step over [from, end): moves the best scored move to from. False if the range is empty.
+    private boolean pickBest(int from, int end) {
+        if (from >= end) return false;
+        int best = from;
+        for (int i = from + 1; i < end; i++) {
+            if (scores[i] > scores[best]) best = i;
+        }
+        moves.swap(from, best);
+        swapScores(from, best);
+        return true;
+    }
+
+    private void swapScores(int i, int j) {
+        int score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    private boolean isUnplayedQuiet(int move) {
+        return move != MoveList.NONE && move != hashMove && isQuiet(move) && contains(quietStart, moves.size(), move);
+    }
+
+    private boolean contains(int from, int end, int move) {
+        for (int i = from; i < end; i++) {
+            if (moves.get(i) == move) return true;
+        }
+        return false;
+    }
+
+    // Static exchange evaluation: what the capture wins or loses once both sides have made
+    // every recapture on its square that pays, least valuable attacker first.
+    int see(int move) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        Piece mover = board.pieceAt(from);
+        Piece victim = board.pieceAt(to);
+
+        long occupancy = board.occupied ^ Bitboard.bit(from);
+        if (MoveList.flags(move) == MoveList.EN_PASSANT) occupancy ^= Bitboard.bit(to + ((mover.getColor() == Color.White) ? 8 : -8));
+
+        int depth = 0;
+        gains[0] = (victim == null) ? (MoveList.isCapture(move) ? SEE_VALUES[Bitboard.PAWN] : 0) : SEE_VALUES[victim.getType()];
+        int attackerType = mover.getType();
+        Color side = mover.getColor();
+
+        while (depth + 1 < gains.length) {
+            side = Bitboard.opposite(side);
+            long attackers = board.attackersTo(to, side, occupancy) & occupancy;
+            if (attackers == 0) break;
+
+            int type = Bitboard.PAWN;
+            long least = 0;
+            for (; type <= Bitboard.KING; type++) {
+                least = attackers & board.pieceBoards[Bitboard.pieceCode(side, type)];
+                if (least != 0) break;
+            }
+
+            depth++;
+            gains[depth] = SEE_VALUES[attackerType] - gains[depth - 1];
+            // Neither side can do better by going on, so this capture is never made
+            if (Math.max(-gains[depth - 1], gains[depth]) < 0) {
+                depth--;
+                break;
+            }
+
+            occupancy ^= Long.lowestOneBit(least);
+            attackerType = type;
+        }
+
+        while (depth > 0) {
+            gains[depth - 1] = -Math.max(-gains[depth - 1], gains[depth]);
+            depth--;
+        }
+        return gains[0];
+    }
+}
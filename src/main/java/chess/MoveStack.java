@@ -16,67 +16,153 @@
 package chess;
 
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
 
 class GameOutOfMoves extends IndexOutOfBoundsException {
 }
 
-public class MoveStack extends Stack<Move> {
+// Make/unmake history kept in parallel preallocated arrays, one slot per ply. The board
+// keeps its own hash up to date; the recorded keys are there for repetition checks.
+// Not synchronized: each game or search thread owns its own stack.
+public class MoveStack {
     ChessBoard theBoard;
 
+    // Room for a short game; longer ones grow the arrays. Kept small because a server may
+    // hold many thousands of games at once.
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] moves = new int[INITIAL_CAPACITY];
+    private Piece[] movedPieces = new Piece[INITIAL_CAPACITY];
+    private Piece[] takenPieces = new Piece[INITIAL_CAPACITY];
+    private int[] castlingRights = new int[INITIAL_CAPACITY];
+    private int[] enPassantSquares = new int[INITIAL_CAPACITY];
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private int size;
+
     MoveStack(ChessBoard board) {
         theBoard = board;
     }
 
-    @Override
-    public synchronized Move pop() {
-        return super.pop();
+    // The same history over another board, as made by ChessBoard.copy. Pieces that are
+    // off the board are duplicated so undoing on the copy never touches this stack's pieces.
+    MoveStack copy(ChessBoard board) {
+        MoveStack copy = new MoveStack(board);
+        copy.moves = moves.clone();
+        copy.castlingRights = castlingRights.clone();
+        copy.enPassantSquares = enPassantSquares.clone();
+        copy.hashes = hashes.clone();
+        copy.movedPieces = new Piece[moves.length];
+        copy.takenPieces = new Piece[moves.length];
+        copy.size = size;
+
+        for (int i = 0; i < size; i++) {
+            copy.movedPieces[i] = copyOf(movedPieces[i]);
+            copy.takenPieces[i] = copyOf(takenPieces[i]);
+        }
+        return copy;
     }
 
-    @Override
-    public synchronized boolean add(Move move) {
-        return super.add(move);
+    // Makes this stack the same history as other's, in place. Its board must already hold other's position.
+    void copyFrom(MoveStack other) {
+        clear();
+        while (moves.length < other.size) grow();
+
+        System.arraycopy(other.moves, 0, moves, 0, other.size);
+        System.arraycopy(other.castlingRights, 0, castlingRights, 0, other.size);
+        System.arraycopy(other.enPassantSquares, 0, enPassantSquares, 0, other.size);
+        System.arraycopy(other.hashes, 0, hashes, 0, other.size);
+        for (int i = 0; i < other.size; i++) {
+            movedPieces[i] = copyOf(other.movedPieces[i]);
+            takenPieces[i] = copyOf(other.takenPieces[i]);
+        }
+        size = other.size;
     }
 
-    public ArrayList<String> takenPieces(Color takenColor) {
-        ArrayList<String> theTakenPieces = new ArrayList<>();
-        Move[] theMoves = new Move[this.size()];
+    private static Piece copyOf(Piece piece) {
+        if (piece == null) return null;
+        return ChessBoard.createPiece(piece.getColor(), piece.getType(), piece.getSquare());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // The packed move played at the given ply, oldest first
+    int moveAt(int ply) {
+        return moves[ply];
+    }
+
+    // The Zobrist key of the position the move at the given ply was played from
+    long hashAt(int ply) {
+        return hashes[ply];
+    }
 
-        for (int i = 0; i < this.size(); i++) {
-            theMoves[i] = this.get(i);
+    // Whether the current position already occurred since the last capture, pawn move or castle.
+    boolean isRepetition() {
+        long hash = theBoard.hash();
+
+        for (int ply = size - 1; ply >= 0; ply--) {
+            int move = moves[ply];
+            if (MoveList.isCapture(move) || MoveList.isPromotion(move) || MoveList.isCastle(move)
+                    || movedPieces[ply].getType() == Bitboard.PAWN) return false;
+            if (hashes[ply] == hash) return true;
         }
+        return false;
+    }
+
+    // Forgets the history without undoing it, for when the board is about to be set up afresh.
+    void clear() {
+        Arrays.fill(movedPieces, 0, size, null);
+        Arrays.fill(takenPieces, 0, size, null);
+        size = 0;
+    }
 
-        for (Move i : theMoves) {
-            if (i.takenPiece != null && i.takenPiece.getColor() == takenColor) {
-                theTakenPieces.add(i.takenPiece.getClass().getSimpleName());
+    public ArrayList<String> takenPieces(Color takenColor) {
+        ArrayList<String> theTakenPieces = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            if (takenPieces[i] != null && takenPieces[i].getColor() == takenColor) {
+                theTakenPieces.add(takenPieces[i].getClass().getSimpleName());
             }
         }
         return theTakenPieces;
     }
 
+    // Plays a packed move on the board and remembers how to take it back.
+    public void apply(int move) {
+        if (size == moves.length) grow();
+
+        moves[size] = move;
+        movedPieces[size] = theBoard.pieceAt(MoveList.from(move));
+        castlingRights[size] = theBoard.castlingRights;
+        enPassantSquares[size] = theBoard.enPassantSquare;
+        hashes[size] = theBoard.hash();
+        takenPieces[size] = theBoard.makeMove(move);
+        size++;
+    }
+
     public void applyUndo() {
-//        System.out.println(this.size());
-        if (this.size() == 0) throw new GameOutOfMoves();
-        else {
-            Move theMove = this.pop();
-            theBoard.forceSet(theMove.movedPiece, theMove.start);
-            theBoard.forceSet(theMove.takenPiece, theMove.end);
-        }
+        if (size == 0) throw new GameOutOfMoves();
+
+        size--;
+        theBoard.unmakeMove(moves[size], movedPieces[size], takenPieces[size],
+                castlingRights[size], enPassantSquares[size]);
+
+        movedPieces[size] = null;
+        takenPieces[size] = null;
     }
-}
 
-class Move {
-    Position start;
-    Position end;
-    Piece movedPiece;
-    Piece takenPiece;
-
-    Move(Position startingPos, Position endPos, Piece pieceThatMoved, Piece pieceThatWasTaken) {
-        start = startingPos;
-        end = endPos;
-        movedPiece = pieceThatMoved;
-        takenPiece = pieceThatWasTaken;
+    private void grow() {
+        int capacity = moves.length * 2;
+        moves = Arrays.copyOf(moves, capacity);
+        movedPieces = Arrays.copyOf(movedPieces, capacity);
+        takenPieces = Arrays.copyOf(takenPieces, capacity);
+        castlingRights = Arrays.copyOf(castlingRights, capacity);
+        enPassantSquares = Arrays.copyOf(enPassantSquares, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
     }
 }
-
-
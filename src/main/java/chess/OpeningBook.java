@@ -0,0 +1,259 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Book moves for opening positions, kept in a file of fixed size entries sorted by the
+// position's Zobrist key and memory-mapped, so a probe is a binary search over the mapping.
+// Keys come from Zobrist, whose seed is fixed, so a book stays valid from run to run.
+//
+//     header   int magic, short version, short unused
+//     entries  long key, short move, short weight, sorted by key then move
+//
+//     java chess.OpeningBook build <games.pgn> <book> [plies] [min games] [threads]
+//     java chess.OpeningBook probe <book> <fen>
+final class OpeningBook implements AutoCloseable {
+
+    private static final int MAGIC = 0x43484242;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 12;
+
+    private static final int MAX_WEIGHT = 0xffff;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer entries;
+    private final int size;
+
+    private OpeningBook(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        long bytes = channel.size();
+        if (bytes < HEADER_BYTES || (bytes - HEADER_BYTES) % ENTRY_BYTES != 0 || bytes > Integer.MAX_VALUE)
+            throw new IOException(path + " is not an opening book");
+
+        entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+        if (entries.getInt(0) != MAGIC || entries.getShort(4) != VERSION) throw new IOException(path + " is not an opening book");
+        size = (int) ((bytes - HEADER_BYTES) / ENTRY_BYTES);
+    }
+
+    static OpeningBook open(Path path) throws IOException {
+        return new OpeningBook(path);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Index of the first entry for the key, or -1 if the book has none
+    int find(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (key(middle) < key) low = middle + 1;
+            else high = middle;
+        }
+        return (low < size && key(low) == key) ? low : -1;
+    }
+
+    long key(int entry) {
+        return entries.getLong(HEADER_BYTES + entry * ENTRY_BYTES);
+    }
+
+    int move(int entry) {
+        return entries.getShort(HEADER_BYTES + entry * ENTRY_BYTES + 8) & 0xffff;
+    }
+
+    int weight(int entry) {
+        return entries.getShort(HEADER_BYTES + entry * ENTRY_BYTES + 10) & 0xffff;
+    }
+
+    // A book move for the position that is in legal, chosen at random in proportion to its
+    // weight, or MoveList.NONE. Checking against the legal moves guards against key collisions.
+    int pick(long key, MoveList legal, long random) {
+        int first = find(key);
+        if (first < 0) return MoveList.NONE;
+
+        long total = 0;
+        for (int i = first; i < size && key(i) == key; i++) {
+            if (isLegal(move(i), legal)) total += weight(i);
+        }
+        if (total == 0) return MoveList.NONE;
+
+        long choice = Math.floorMod(random, total);
+        for (int i = first; i < size && key(i) == key; i++) {
+            if (!isLegal(move(i), legal)) continue;
+            choice -= weight(i);
+            if (choice < 0) return move(i);
+        }
+        return MoveList.NONE;
+    }
+
+    private static boolean isLegal(int move, MoveList legal) {
+        for (int i = 0; i < legal.size(); i++) {
+            if (legal.get(i) == move) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Counts how often each move was played from each position in the first plies of the games,
+    // drops the moves seen in fewer than minGames of them and writes the rest as a book.
+    // Returns the number of entries written.
+    static int build(InputStream games, Path book, int plies, int minGames, int threads) {
+        Entries collected = new Entries(1 << 16);
+        try (PgnReader reader = new PgnReader(threads)) {
+            reader.read(games, record -> {
+                MoveStack stack = record.game.theStack;
+                Entries game = new Entries(Math.min(plies, stack.size()));
+                for (int ply = 0; ply < Math.min(plies, stack.size()); ply++) game.add(stack.hashAt(ply), stack.moveAt(ply));
+                return game;
+            }, collected::addAll);
+        }
+
+        long[] keys = collected.keys;
+        int[] moves = collected.moves;
+        int count = collected.size;
+        sort(keys, moves, count);
+
+        try (FileChannel out = FileChannel.open(book, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+
+            int written = 0;
+            for (int i = 0; i < count; ) {
+                int j = i;
+                while (j < count && keys[j] == keys[i] && moves[j] == moves[i]) j++;
+
+                if (j - i >= minGames) {
+                    if (buffer.remaining() < ENTRY_BYTES) write(buffer, out);
+                    buffer.putLong(keys[i]).putShort((short) moves[i]).putShort((short) Math.min(j - i, MAX_WEIGHT));
+                    written++;
+                }
+                i = j;
+            }
+            write(buffer, out);
+            return written;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
+    }
+
+    // (key, move) pairs, from one game or gathered from all of them
+    private static final class Entries {
+        long[] keys;
+        int[] moves;
+        int size;
+
+        Entries(int capacity) {
+            keys = new long[capacity];
+            moves = new int[capacity];
+        }
+
+        void add(long key, int move) {
+            keys[size] = key;
+            moves[size++] = move;
+        }
+
+        void addAll(Entries other) {
+            if (size + other.size > keys.length) {
+                int capacity = Math.max(keys.length * 2, size + other.size);
+                keys = Arrays.copyOf(keys, capacity);
+                moves = Arrays.copyOf(moves, capacity);
+            }
+            System.arraycopy(other.keys, 0, keys, size, other.size);
+            System.arraycopy(other.moves, 0, moves, size, other.size);
+            size += other.size;
+        }
+    }
+
+    // Heap sort of the pairs by key, then move, so equal pairs end up next to each other
+    private static void sort(long[] keys, int[] moves, int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) siftDown(keys, moves, i, count);
+        for (int end = count - 1; end > 0; end--) {
+            swap(keys, moves, 0, end);
+            siftDown(keys, moves, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] keys, int[] moves, int i, int count) {
+        while (2 * i + 1 < count) {
+            int child = 2 * i + 1;
+            if (child + 1 < count && less(keys, moves, child, child + 1)) child++;
+            if (!less(keys, moves, i, child)) return;
+            swap(keys, moves, i, child);
+            i = child;
+        }
+    }
+
+    private static boolean less(long[] keys, int[] moves, int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && moves[a] < moves[b]);
+    }
+
+    private static void swap(long[] keys, int[] moves, int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        int move = moves[a];
+        moves[a] = moves[b];
+        moves[b] = move;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("build")) {
+            int plies = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+            int minGames = (args.length > 4) ? Integer.parseInt(args[4]) : 2;
+            int threads = (args.length > 5) ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+            try (InputStream in = Files.newInputStream(Paths.get(args[1]))) {
+                int entries = build(in, Paths.get(args[2]), plies, minGames, threads);
+                System.err.println(entries + " book entries written");
+            }
+        } else if (args.length >= 3 && args[0].equals("probe")) {
+            try (OpeningBook book = open(Paths.get(args[1]))) {
+                ChessBoard board = ChessBoard.fromFen(args[2]);
+                int first = book.find(board.hash());
+                for (int i = first; i >= 0 && i < book.size() && book.key(i) == board.hash(); i++)
+                    System.out.println(MoveList.toString(book.move(i)) + " " + book.weight(i));
+            }
+        } else {
+            System.err.println("usage: OpeningBook build <games.pgn> <book> [plies] [min games] [threads] | probe <book> <fen>");
+            System.exit(2);
+        }
+    }
+}
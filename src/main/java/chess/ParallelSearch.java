@@ -0,0 +1,140 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Lazy SMP: helper threads run the same iterative deepening search on private copies of
+// the game. They share nothing but the transposition table, and every result one of
+// them stores there sharpens the move ordering and cutoffs of the others. Each thread
+// keeps its Search, and so what it has learned about move ordering, from move to move.
+final class ParallelSearch implements AutoCloseable {
+
+    private final logic game;
+    private final int threads;
+    private final ExecutorService helpers;
+
+    // The main thread's first, then one for each helper, each on its own copy of the game
+    private final Search[] searches;
+    private final logic[] copies;
+
+    private volatile Search[] running;
+    // Set by stop until the next reset, so a stop that comes before the searches are running is not lost
+    private volatile boolean stopped;
+
+    ParallelSearch(logic game, int threads) {
+        this.game = game;
+        this.threads = Math.max(1, threads);
+        this.helpers = (this.threads > 1) ? Executors.newFixedThreadPool(this.threads - 1, task -> {
+            Thread t = new Thread(task, "search-helper");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+
+        this.searches = new Search[this.threads];
+        this.copies = new logic[this.threads];
+        searches[0] = new Search(game);
+        for (int i = 1; i < this.threads; i++) {
+            copies[i] = game.copy();
+            searches[i] = new Search(copies[i]);
+        }
+    }
+
+    // Runs until the main thread finishes maxDepth or spends maxNodes, then stops the helpers.
+    // Returns the result of the deepest iteration any thread completed, or a book move without searching.
+    Search.Result search(int maxDepth, long maxNodes) {
+        return search(maxDepth, maxNodes, null);
+    }
+
+    // As above, telling progress of each iteration the main thread completes.
+    Search.Result search(int maxDepth, long maxNodes, Consumer<Search.Result> progress) {
+        int bookMove = game.bookMove();
+        if (bookMove != MoveList.NONE) return new Search.Result(bookMove, 0, 0, 0, new int[]{bookMove});
+
+        game.table().newSearch();
+
+        for (int i = 1; i < threads; i++) copies[i].copyFrom(game);
+        for (Search s : searches) s.reset();
+        searches[0].progress = progress;
+        running = searches;
+        if (stopped) stop();
+
+        ArrayList<Future<Search.Result>> results = new ArrayList<>();
+        for (int i = 1; i < threads; i++) {
+            Search helper = searches[i];
+            // Half the helpers start a ply deeper so the threads spread over more depths
+            int startDepth = 1 + (i & 1);
+            results.add(helpers.submit(() -> helper.search(startDepth, maxDepth, Long.MAX_VALUE)));
+        }
+
+        Search.Result best = searches[0].search(1, maxDepth, maxNodes);
+        long nodes = searches[0].nodes();
+
+        for (int i = 1; i < threads; i++) searches[i].stop();
+
+        // Every helper has finished before the next search copies the game over theirs, so an
+        // interrupt is only remembered here; the helpers have been stopped and finish soon
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (int i = 1; i < threads; i++) {
+            while (true) {
+                try {
+                    Search.Result result = results.get(i - 1).get();
+                    nodes += searches[i].nodes();
+                    if (result.depth > best.depth && result.move != MoveList.NONE) best = result;
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        running = null;
+        if (interrupted) Thread.currentThread().interrupt();
+
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IllegalStateException("search helper failed", failure);
+
+        return new Search.Result(best.move, best.score, best.depth, nodes, best.line);
+    }
+
+    // Makes the running search, or the next one if none is running yet, return as soon as it can.
+    void stop() {
+        stopped = true;
+        Search[] searches = running;
+        if (searches != null) {
+            for (Search s : searches) s.stop();
+        }
+    }
+
+    // Forgets an earlier stop. Call it before handing the next search to another thread.
+    void reset() {
+        stopped = false;
+    }
+
+    @Override
+    public void close() {
+        if (helpers != null) helpers.shutdownNow();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Pawn structure terms worked out from the two pawn bitboards alone: passed, isolated,
+// doubled and backward pawns, as a middlegame and an endgame score from White's side.
+// They depend on nothing but the pawns, so PawnTable can keep them by the pawn key.
+// King shelter also needs the king, so it is added on top of the cached part.
+final class PawnStructure {
+
+    // By the pawn's rank counted from its own side: 1 on its second rank up to 6 on its seventh
+    private static final int[] PASSED_MIDGAME = {0, 5, 10, 15, 25, 40, 60, 0};
+    private static final int[] PASSED_ENDGAME = {0, 10, 20, 35, 60, 100, 150, 0};
+    private static final int ISOLATED_MIDGAME = -10;
+    private static final int ISOLATED_ENDGAME = -15;
+    private static final int DOUBLED_MIDGAME = -10;
+    private static final int DOUBLED_ENDGAME = -25;
+    private static final int BACKWARD_MIDGAME = -8;
+    private static final int BACKWARD_ENDGAME = -10;
+
+    // For each of the three files around the king: no pawn in front of it, or one two ranks up
+    private static final int SHELTER_MISSING = -25;
+    private static final int SHELTER_ADVANCED = -10;
+
+    private static final long[] FILES = new long[8];
+    private static final long[] ADJACENT_FILES = new long[8];
+    // By color ordinal, then square: the squares ahead of it on its own and the adjacent files
+    private static final long[][] PASSED_MASKS = new long[2][64];
+    // By color ordinal, then square: the squares beside it and behind it on the adjacent files
+    private static final long[][] SUPPORT_MASKS = new long[2][64];
+
+    static {
+        for (int square = 0; square < 64; square++) FILES[Bitboard.column(square)] |= Bitboard.bit(square);
+        for (int file = 0; file < 8; file++) {
+            if (file > 0) ADJACENT_FILES[file] |= FILES[file - 1];
+            if (file < 7) ADJACENT_FILES[file] |= FILES[file + 1];
+        }
+
+        for (int square = 0; square < 64; square++) {
+            int row = Bitboard.row(square);
+            long span = FILES[Bitboard.column(square)] | ADJACENT_FILES[Bitboard.column(square)];
+            for (int other = 0; other < 64; other++) {
+                long bit = Bitboard.bit(other);
+                // White pawns move towards row 0
+                if (Bitboard.row(other) < row) PASSED_MASKS[Color.White.ordinal()][square] |= span & bit;
+                if (Bitboard.row(other) > row) PASSED_MASKS[Color.Black.ordinal()][square] |= span & bit;
+                if (Bitboard.row(other) >= row) SUPPORT_MASKS[Color.White.ordinal()][square] |= ADJACENT_FILES[Bitboard.column(square)] & bit;
+                if (Bitboard.row(other) <= row) SUPPORT_MASKS[Color.Black.ordinal()][square] |= ADJACENT_FILES[Bitboard.column(square)] & bit;
+            }
+        }
+    }
+
+    private PawnStructure() {
+    }
+
+    // Both scores packed into one int, see Evaluation.pack
+    static int evaluate(long whitePawns, long blackPawns) {
+        int white = evaluate(Color.White, whitePawns, blackPawns);
+        int black = evaluate(Color.Black, blackPawns, whitePawns);
+        return Evaluation.pack(Evaluation.midgame(white) - Evaluation.midgame(black),
+                Evaluation.endgame(white) - Evaluation.endgame(black));
+    }
+
+    private static int evaluate(Color color, long own, long enemy) {
+        int side = color.ordinal();
+        int forward = (color == Color.White) ? -8 : 8;
+        int midgame = 0;
+        int endgame = 0;
+
+        for (int file = 0; file < 8; file++) {
+            int count = Long.bitCount(own & FILES[file]);
+            if (count > 1) {
+                midgame += (count - 1) * DOUBLED_MIDGAME;
+                endgame += (count - 1) * DOUBLED_ENDGAME;
+            }
+        }
+
+        for (long pawns = own; pawns != 0; pawns &= pawns - 1) {
+            int square = Long.numberOfTrailingZeros(pawns);
+            int file = Bitboard.column(square);
+
+            if ((PASSED_MASKS[side][square] & enemy) == 0) {
+                int advanced = (color == Color.White) ? 7 - Bitboard.row(square) : Bitboard.row(square);
+                midgame += PASSED_MIDGAME[advanced];
+                endgame += PASSED_ENDGAME[advanced];
+            }
+
+            if ((ADJACENT_FILES[file] & own) == 0) {
+                midgame += ISOLATED_MIDGAME;
+                endgame += ISOLATED_ENDGAME;
+            } else if ((SUPPORT_MASKS[side][square] & own) == 0 && square + forward >= 0 && square + forward < 64
+                    && (Attacks.pawn(color, square + forward) & enemy) != 0) {
+                // No pawn can come up beside it, and it cannot advance without being taken
+                midgame += BACKWARD_MIDGAME;
+                endgame += BACKWARD_ENDGAME;
+            }
+        }
+        return Evaluation.pack(midgame, endgame);
+    }
+
+    // Middlegame score for the pawns in front of the king, from White's side
+    static int shelter(ChessBoard board) {
+        return shelter(board, Color.White) - shelter(board, Color.Black);
+    }
+
+    private static int shelter(ChessBoard board, Color color) {
+        int king = board.kingSquares[color.ordinal()];
+        if (king < 0) return 0;
+
+        int row = Bitboard.row(king);
+        int step = (color == Color.White) ? -1 : 1;
+        if (row + step < 0 || row + step > 7) return 0;
+
+        long own = board.pieceBoards[Bitboard.pieceCode(color, Bitboard.PAWN)];
+        int score = 0;
+        for (int file = Math.max(0, Bitboard.column(king) - 1); file <= Math.min(7, Bitboard.column(king) + 1); file++) {
+            if ((own & Bitboard.bit(Bitboard.square(row + step, file))) != 0) continue;
+
+            int further = row + 2 * step;
+            if (further >= 0 && further <= 7 && (own & Bitboard.bit(Bitboard.square(further, file))) != 0) score += SHELTER_ADVANCED;
+            else score += SHELTER_MISSING;
+        }
+        return score;
+    }
+}
+
+// Pawn structure scores by the board's pawn key, in a fixed number of slots where a newer
+// structure replaces an older one. Each slot is one long: the top half of the key, which
+// with the slot number identifies the structure, and the packed score. Not thread-safe:
+// every Search keeps a table of its own.
+final class PawnTable {
+
+    static final int DEFAULT_ENTRIES = 1 << 14;
+
+    private final long[] entries;
+    private final int mask;
+
+    PawnTable(int entries) {
+        int size = Integer.highestOneBit(Math.max(1, entries));
+        this.entries = new long[size];
+        this.mask = size - 1;
+    }
+
+    // The packed structure score of the board's pawns, worked out and kept if not already here.
+    // An empty slot matches only a key whose top half is zero, as the pawnless key is, and
+    // then the empty score is the right one.
+    int score(ChessBoard board) {
+        long key = board.pawnHash();
+        int slot = (int) key & mask;
+
+        long entry = entries[slot];
+        if (((entry ^ key) >>> 32) == 0) return (int) entry;
+
+        int score = PawnStructure.evaluate(board.pieceBoards[Bitboard.pieceCode(Color.White, Bitboard.PAWN)],
+                board.pieceBoards[Bitboard.pieceCode(Color.Black, Bitboard.PAWN)]);
+        entries[slot] = (key & 0xFFFFFFFF00000000L) | (score & 0xFFFFFFFFL);
+        return score;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Counts the leaf nodes of the legal move tree, the standard check on a move generator.
+final class Perft {
+
+    private final logic game;
+    private final MoveList[] moveLists;
+
+    Perft(logic game, int maxDepth) {
+        this.game = game;
+        moveLists = new MoveList[maxDepth + 1];
+        for (int i = 0; i < moveLists.length; i++) moveLists[i] = new MoveList();
+    }
+
+    long perft(int depth) {
+        return perft(game.currentColor, depth);
+    }
+
+    private long perft(Color toMove, int depth) {
+        MoveList moves = moveLists[depth];
+        Side side = (toMove == Color.White) ? game.whiteSide : game.blackSide;
+        side.getAllValidMoves(game.theBoard, moves);
+
+        if (depth <= 1) return (depth == 1) ? moves.size() : 1;
+
+        long nodes = 0;
+        Color next = Bitboard.opposite(toMove);
+        for (int i = 0; i < moves.size(); i++) {
+            game.theStack.apply(moves.get(i));
+            nodes += perft(next, depth - 1);
+            game.theStack.applyUndo();
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Streams games out of a PGN file of any size. The reading thread only finds where each
+// game starts and ends; the games are parsed and replayed move by move through logic on
+// a fork/join pool, each thread with a game of its own. A fixed window of games is in
+// flight at once, and results reach the caller in file order.
+//
+//     java chess.PgnReader <file.pgn | -> [threads]
+final class PgnReader implements AutoCloseable {
+
+    // Longer games are reported as errors instead of being held in memory
+    static final int MAX_GAME_BYTES = 1 << 20;
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+    private static final int WINDOW_PER_THREAD = 8;
+
+    // Called on a pool thread once a game has been replayed; the game and its record are
+    // reused for the next one, so anything kept must be copied into the value returned.
+    interface Visitor<T> {
+        T visit(Record record);
+    }
+
+    static final class Record {
+        // Position of the game in the file, from 0
+        long number;
+        // Holds every move of the game that could be read, in its MoveStack
+        final logic game = new logic(new ChessBoard(), Color.White);
+        // The FEN the game started from, or null for the usual start
+        String startFen;
+        String result;
+        // Why the game stopped short, or null if every move was read
+        String error;
+
+        private final ArrayList<String> tagNames = new ArrayList<>();
+        private final ArrayList<String> tagValues = new ArrayList<>();
+
+        String tag(String name) {
+            int i = tagNames.indexOf(name);
+            return (i < 0) ? null : tagValues.get(i);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int window;
+
+    private long games;
+    // Added to by the pool threads as they finish games
+    private final LongAdder plies = new LongAdder();
+
+    PgnReader(int threads) {
+        pool = new ForkJoinPool(Math.max(1, threads));
+        window = WINDOW_PER_THREAD * pool.getParallelism();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: PgnReader <file.pgn | -> [threads]");
+            System.exit(2);
+        }
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long started = System.nanoTime();
+
+        try (PgnReader reader = new PgnReader(threads);
+             InputStream in = args[0].equals("-") ? System.in : Files.newInputStream(Paths.get(args[0]))) {
+            // One line per game: number, result, plies read, final position and any error
+            reader.read(in, record -> record.number + " " + record.result + " " + record.game.theStack.size() + " "
+                    + record.game.theBoard.toFen() + ((record.error == null) ? "" : " ; " + record.error) + "\n", line -> {
+                try {
+                    out.write(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.err.printf("%d games, %d plies in %.1f s: %.0f games/s, %.0f plies/s%n",
+                    reader.games, reader.plies.sum(), seconds, reader.games / seconds, reader.plies.sum() / seconds);
+        }
+    }
+
+    // Reads every game in the stream, handing each to the visitor on a pool thread and what it
+    // returns to the sink on this thread, in file order. Returns the number of games read.
+    <T> long read(InputStream in, Visitor<T> visitor, Consumer<T> sink) {
+        games = 0;
+        plies.reset();
+
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        ArrayDeque<ForkJoinTask<T>> pending = new ArrayDeque<>();
+
+        Splitter splitter = new Splitter((text, size, tooLong) -> {
+            byte[] copy = Arrays.copyOf(text, size);
+            long number = games++;
+            pending.add(pool.submit(() -> {
+                Record record = workers.get().replay(number, copy, tooLong);
+                plies.add(record.game.theStack.size());
+                return visitor.visit(record);
+            }));
+            if (pending.size() >= window) sink.accept(pending.remove().join());
+        });
+
+        byte[] buffer = new byte[READ_BUFFER_BYTES];
+        try {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) splitter.accept(buffer, read);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            splitter.finish();
+            while (!pending.isEmpty()) sink.accept(pending.remove().join());
+        }
+        return games;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private interface GameText {
+        void accept(byte[] text, int size, boolean tooLong);
+    }
+
+    // Cuts the byte stream into games: a game ends where a tag line follows its move text.
+    // Braces and semicolon comments are followed so a '[' inside one does not split a game.
+    private static final class Splitter {
+        private final GameText games;
+
+        private byte[] text = new byte[READ_BUFFER_BYTES];
+        private int size;
+        private boolean tooLong;
+
+        private boolean lineStart = true;
+        private boolean tagLine;
+        private boolean braceComment;
+        private boolean lineComment;
+        private boolean seenMoves;
+
+        Splitter(GameText games) {
+            this.games = games;
+        }
+
+        void accept(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+
+                if (lineComment) {
+                    if (b == '\n') lineComment = false;
+                } else if (braceComment) {
+                    if (b == '}') braceComment = false;
+                } else if (tagLine) {
+                    if (b == '\n') tagLine = false;
+                } else if (lineStart && b == '[') {
+                    if (seenMoves) finish();
+                    tagLine = true;
+                } else if (b == '{') {
+                    braceComment = true;
+                } else if (b == ';') {
+                    lineComment = true;
+                } else if (b > ' ') {
+                    seenMoves = true;
+                }
+                lineStart = (b == '\n');
+
+                if (size == MAX_GAME_BYTES) {
+                    tooLong = true;
+                } else {
+                    if (size == text.length) text = Arrays.copyOf(text, Math.min(text.length * 2, MAX_GAME_BYTES));
+                    text[size++] = b;
+                }
+            }
+        }
+
+        void finish() {
+            boolean blank = true;
+            for (int i = 0; i < size && blank; i++) blank = text[i] <= ' ';
+
+            if (!blank) games.accept(text, size, tooLong);
+            size = 0;
+            tooLong = false;
+            seenMoves = false;
+            braceComment = false;
+            lineComment = false;
+        }
+    }
+
+    // Parses the tags and move text of one game and replays the moves as it goes.
+    private static final class Worker {
+        private final Record record = new Record();
+        private final ByteSequence view = new ByteSequence();
+
+        private byte[] text;
+        private int length;
+        private boolean started;
+
+        Record replay(long number, byte[] text, boolean tooLong) {
+            this.text = text;
+            this.length = text.length;
+            view.reset(ByteBuffer.wrap(text), 0, text.length);
+
+            record.number = number;
+            record.result = null;
+            record.error = tooLong ? "game longer than " + MAX_GAME_BYTES + " bytes" : null;
+            record.tagNames.clear();
+            record.tagValues.clear();
+            started = false;
+
+            int i = 0;
+            while (i < length) {
+                byte b = text[i];
+
+                if (b <= ' ') {
+                    i++;
+                } else if (b == '[') {
+                    i = readTag(i + 1);
+                } else if (b == '{') {
+                    i = skipPast(i + 1, '}');
+                } else if (b == ';' || (b == '%' && (i == 0 || text[i - 1] == '\n'))) {
+                    i = skipPast(i + 1, '\n');
+                } else if (b == '(') {
+                    i = skipVariation(i + 1);
+                } else if (b == '$') {
+                    for (i++; i < length && Character.isDigit(text[i]); i++) ;
+                } else {
+                    i = readMove(i);
+                }
+            }
+
+            start();
+            if (record.result == null) record.result = (record.tag("Result") != null) ? record.tag("Result") : "*";
+            return record;
+        }
+
+        // [Name "value"], with \" and \\ escapes inside the value
+        private int readTag(int i) {
+            int nameStart = i;
+            while (i < length && text[i] > ' ' && text[i] != '"' && text[i] != ']') i++;
+            String name = new String(text, nameStart, i - nameStart, StandardCharsets.UTF_8);
+
+            while (i < length && text[i] != '"' && text[i] != ']' && text[i] != '\n') i++;
+            StringBuilder value = new StringBuilder();
+            if (i < length && text[i] == '"') {
+                int from = ++i;
+                for (; i < length && text[i] != '"' && text[i] != '\n'; i++) {
+                    if (text[i] == '\\' && i + 1 < length) i++;
+                }
+                value.append(new String(text, from, i - from, StandardCharsets.UTF_8).replace("\\\"", "\"").replace("\\\\", "\\"));
+            }
+
+            record.tagNames.add(name);
+            record.tagValues.add(value.toString());
+            return skipPast(i, ']');
+        }
+
+        private int readMove(int i) {
+            start();
+
+            // Move numbers, "12." or "12...", possibly run into the move after them
+            int j = i;
+            while (j < length && Character.isDigit(text[j])) j++;
+            if (j > i && j < length && text[j] == '.') {
+                while (j < length && text[j] == '.') j++;
+                return j;
+            }
+
+            int end = i;
+            while (end < length && text[end] > ' ' && "{}();[".indexOf(text[end]) < 0) end++;
+            if (end == i) return i + 1;
+
+            if (isResult(i, end)) {
+                record.result = new String(text, i, end - i, StandardCharsets.US_ASCII);
+                return end;
+            }
+            if (record.error != null) return end;
+
+            logic game = record.game;
+            int move = game.findSanMove(view, i, end);
+            if (move == MoveList.NONE || game.move(move) != status.DEFAULT)
+                record.error = "no legal move " + new String(text, i, end - i, StandardCharsets.UTF_8)
+                        + " at ply " + (game.theStack.size() + 1);
+            return end;
+        }
+
+        // Sets up the game's first position, from the FEN tag if there is one
+        private void start() {
+            if (started) return;
+            started = true;
+
+            String fen = record.tag("FEN");
+            record.startFen = null;
+            try {
+                record.game.loadFen((fen != null) ? fen : ChessBoard.START_FEN);
+                record.startFen = fen;
+            } catch (IllegalArgumentException e) {
+                record.game.loadFen(ChessBoard.START_FEN);
+                if (record.error == null) record.error = "bad FEN tag";
+            }
+        }
+
+        private boolean isResult(int start, int end) {
+            return matches(start, end, "1-0") || matches(start, end, "0-1")
+                    || matches(start, end, "1/2-1/2") || matches(start, end, "*");
+        }
+
+        private boolean matches(int start, int end, String word) {
+            if (end - start != word.length()) return false;
+            for (int i = 0; i < word.length(); i++) {
+                if (text[start + i] != word.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private int skipPast(int i, char c) {
+            while (i < length && text[i] != c) i++;
+            return i + 1;
+        }
+
+        // Variations are not replayed; comments inside them may hold parentheses of their own
+        private int skipVariation(int i) {
+            int depth = 1;
+            while (i < length && depth > 0) {
+                byte b = text[i++];
+                if (b == '(') depth++;
+                else if (b == ')') depth--;
+                else if (b == '{') i = skipPast(i, '}');
+                else if (b == ';') i = skipPast(i, '\n');
+            }
+            return i;
+        }
+    }
+}
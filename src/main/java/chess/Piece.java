@@ -16,46 +16,45 @@
 package chess;
 
 import java.util.HashSet;
-import java.util.Objects;
-
-import static chess.MoveCode.*;
-
 
 enum Color {
     Black,
     White,
 }
 
-enum MoveCode {
-    SamePieceAtPosition,
-    EnemyPieceAtPosition,
-    Valid,
-    OutOfBounds
-}
+// One of the 64 squares, numbered row * 8 + column. Instances are interned and immutable,
+// so squares can be compared and hashed by index and never need to be allocated.
+final class Square {
+    private static final Square[] SQUARES = new Square[64];
 
-class Position {
-    public int row;
-    public int column;
+    static {
+        for (int i = 0; i < 64; i++) SQUARES[i] = new Square(i);
+    }
+
+    public final int row;
+    public final int column;
+    public final int index;
 
-    Position(int row, int col) {
-        this.row = row;
-        this.column = col;
+    private Square(int index) {
+        this.index = index;
+        this.row = index >>> 3;
+        this.column = index & 7;
     }
 
-    public int getColumn() {
-        return column;
+    static Square of(int index) {
+        return SQUARES[index];
     }
 
-    public void setColumn(int column) {
-        this.column = column;
+    static Square of(int row, int column) {
+        return SQUARES[row * 8 + column];
     }
 
-    public int getRow() {
-        return row;
+    public int getColumn() {
+        return column;
     }
 
-    public void setRow(int row) {
-        this.row = row;
+    public int getRow() {
+        return row;
     }
 
     @Override
@@ -66,27 +65,29 @@ class Position {
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Position position = (Position) o;
-        return row == position.row && column == position.column;
+        return o instanceof Square && ((Square) o).index == index;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(row, column);
+        return index;
     }
 
 }
 
 public abstract class Piece {
 
+    static final int[][] ORTHOGONAL = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}};
+    static final int[][] DIAGONAL = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+    static final int[][] ADJACENT = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+    static final int[][] KNIGHT_JUMPS = {{1, 2}, {1, -2}, {-1, 2}, {-1, -2}, {2, 1}, {2, -1}, {-2, 1}, {-2, -1}};
+
     protected final Color color;
-    protected HashSet<Position> availableMoves = new HashSet<>();
-    protected Position currentPosition;
+    protected HashSet<Square> availableMoves = new HashSet<>();
+    protected Square currentPosition;
     protected String pieceIdentification = null;
 
-    Piece(Color theColor, Position thePosition) {
+    Piece(Color theColor, Square thePosition) {
         this.color = theColor;
         this.currentPosition = thePosition;
         this.pieceIdentification = (theColor == Color.Black) ? outputHelpers.RED : outputHelpers.YELLOW;
@@ -94,15 +95,41 @@ public abstract class Piece {
 
     }
 
-    public boolean positionInAvailableMoves(Position positionToCheck) {
-        for (Position p : availableMoves) if (positionToCheck.equals(p)) return true;
+    public boolean positionInAvailableMoves(Square positionToCheck) {
+        for (Square p : availableMoves) if (positionToCheck.equals(p)) return true;
         return false;
     }
 
     // GETTERS
-    protected abstract void getMoves(ChessBoard theChessBoard);
 
-    public HashSet<Position> getAvailableMoves(ChessBoard theBoard) {
+    // Appends this piece's moves to the list as packed ints (see MoveList). Allocates nothing.
+    abstract void generateMoves(ChessBoard theChessBoard, MoveList moves);
+
+    protected void getMoves(ChessBoard theChessBoard) {
+        availableMoves.clear();
+
+        MoveList moves = theChessBoard.scratchMoves;
+        moves.clear();
+        generateMoves(theChessBoard, moves);
+
+        for (int i = 0; i < moves.size(); i++) {
+            int to = MoveList.to(moves.get(i));
+            availableMoves.add(Square.of(to));
+        }
+    }
+
+    // One of the Bitboard piece type constants
+    abstract int getType();
+
+    int getCode() {
+        return Bitboard.pieceCode(color, getType());
+    }
+
+    int getSquare() {
+        return currentPosition.index;
+    }
+
+    public HashSet<Square> getAvailableMoves(ChessBoard theBoard) {
         getMoves(theBoard);
         return availableMoves;
     }
@@ -111,34 +138,30 @@ public abstract class Piece {
         return color;
     }
 
-    public Position getCurrentPosition() {
+    public Square getCurrentPosition() {
         return currentPosition;
     }
 
-    public void setCurrentPosition(Position currentPosition) {
+    public void setCurrentPosition(Square currentPosition) {
         this.currentPosition = currentPosition;
     }
 
     // SETTERS
 
     public void setPosition(int row, int col) {
-        this.currentPosition = new Position(row, col);
+        this.currentPosition = Square.of(row, col);
     }
 
-    protected MoveCode addMove(Position p, Piece thePiece) {
+    // Adds a move to each square in targets, flagging the ones an enemy piece stands on.
+    protected void addTargets(ChessBoard theChessBoard, MoveList moves, long targets) {
+        int from = getSquare();
+        long enemies = theChessBoard.colorBoards[Bitboard.opposite(color).ordinal()];
 
-        if (thePiece == null) {
-            this.availableMoves.add(p);
-            return Valid;
-        } else if (thePiece instanceof OutOfBoundsPiece) {
-            return OutOfBounds;
-        } else if (thePiece.getColor() == this.getColor()) {
-            return SamePieceAtPosition;
-        } else if (thePiece.getColor() != this.getColor()) {
-            this.availableMoves.add(p);
-            return EnemyPieceAtPosition;
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            moves.add(MoveList.encode(from, to, ((enemies >>> to) & 1) != 0 ? MoveList.CAPTURE : MoveList.QUIET));
+            targets &= targets - 1;
         }
-        return null;
     }
 
     @Override
@@ -150,18 +173,25 @@ public abstract class Piece {
 
 class OutOfBoundsPiece extends Piece {
 
-    OutOfBoundsPiece(Color theColor, Position thePosition) {
+    static final OutOfBoundsPiece INSTANCE = new OutOfBoundsPiece(null, null);
+
+    OutOfBoundsPiece(Color theColor, Square thePosition) {
         super(theColor, thePosition);
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+    }
+
+    @Override
+    int getType() {
+        return -1;
     }
 }
 
 class Rook extends Piece {
 
-    Rook(Color theColor, Position thePosition) {
+    Rook(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "R";
 //        pieceIdentification = (theColor == Color.Black) ? outputHelpers.BLACK : outputHelpers.WHITE + "R";
@@ -170,36 +200,21 @@ class Rook extends Piece {
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
-
-        this.availableMoves.clear();
-
-        for (int multiplier : new int[]{1, -1}) {
-            // EAST
-            for (int i = 1; i < 8; i++) {
-                Piece pieceAtThisPosition = theChessBoard.get(this.currentPosition.row, currentPosition.column + i * multiplier);
-                MoveCode code = (addMove(new Position(currentPosition.row, currentPosition.column + i * multiplier), pieceAtThisPosition));
-                if (code != Valid) {
-                    break;
-                }
-            }
+    int getType() {
+        return Bitboard.ROOK;
+    }
 
-            // SOUTH
-            for (int i = 1; i < 8; i++) {
-                Piece pieceAtThisPosition = theChessBoard.get(currentPosition.row + i * multiplier, currentPosition.column);
-                MoveCode code = (addMove(new Position(currentPosition.row + i * multiplier, currentPosition.column), pieceAtThisPosition));
-                if (code != Valid) {
-                    break;
-                }
-            }
-        }
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+        long targets = Attacks.rook(getSquare(), theChessBoard.occupied);
+        addTargets(theChessBoard, moves, targets & ~theChessBoard.colorBoards[color.ordinal()]);
     }
 
 }
 
 class Knight extends Piece {
 
-    Knight(Color theColor, Position thePosition) {
+    Knight(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "N";
 //        pieceIdentification = (theColor == Color.Black) ? outputHelpers.BLACK : outputHelpers.WHITE + "K";
@@ -210,145 +225,88 @@ class Knight extends Piece {
     public static void main(String[] args) {
         ChessBoard b = new ChessBoard();
 
-        Queen z = new Queen(Color.Black, new Position(3, 3));
+        Queen z = new Queen(Color.Black, Square.of(3, 3));
 
-        b.theBoard[3][3] = z;
-        b.theBoard[2][4] = new Rook(Color.White, new Position(2, 4));
+        b.forceSet(z, Square.of(3, 3));
+        b.forceSet(new Rook(Color.White, Square.of(2, 4)), Square.of(2, 4));
 
         z.getMoves(b);
         System.out.println(" = " + z.availableMoves);
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
-        this.availableMoves.clear();
-
-        for (int row : new int[]{currentPosition.row - 1, currentPosition.row + 1}) {
-            for (int col : new int[]{currentPosition.column - 2, currentPosition.column + 2}) {
-                addMove(new Position(row, col), theChessBoard.get(row, col));
-            }
-        }
-
-        for (int row : new int[]{currentPosition.row - 2, currentPosition.row + 2}) {
-            for (int col : new int[]{currentPosition.column - 1, currentPosition.column + 1}) {
-                addMove(new Position(row, col), theChessBoard.get(row, col));
-            }
-        }
+    int getType() {
+        return Bitboard.KNIGHT;
+    }
 
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+        addTargets(theChessBoard, moves, Attacks.KNIGHT[getSquare()] & ~theChessBoard.colorBoards[color.ordinal()]);
     }
 
 }
 
 class Bishop extends Piece {
 
-    Bishop(Color theColor, Position thePosition) {
+    Bishop(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "B";
 //        pieceIdentification = theColor.toString().charAt(0) + "B";
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
-        this.availableMoves.clear();
-
-        for (int z : new int[]{-1, 1}) {
-            for (int k : new int[]{-1, 1}) {
-                for (int i = 1; i < 8; i++) {
-                    MoveCode code = addMove(new Position(currentPosition.row + z * i, currentPosition.column + k * i),
-                            theChessBoard.get(currentPosition.row + z * i, currentPosition.column + k * i));
-
-                    if (code != Valid) break;
-                } // Innermost For Loop
-            } // 2nd Innermost For Loop
-        } // Outermost for loop
+    int getType() {
+        return Bitboard.BISHOP;
+    }
 
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+        long targets = Attacks.bishop(getSquare(), theChessBoard.occupied);
+        addTargets(theChessBoard, moves, targets & ~theChessBoard.colorBoards[color.ordinal()]);
     }
 }
 
 class Queen extends Piece {
 
-    Queen(Color theColor, Position thePosition) {
+    Queen(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "Q";
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
-        this.availableMoves.clear();
-
-        // DIAGONAL
-        for (int z : new int[]{-1, 1}) {
-            for (int k : new int[]{-1, 1}) {
-                for (int i = 1; i < 8; i++) {
-                    MoveCode code = addMove(new Position(currentPosition.row + z * i, currentPosition.column + k * i),
-                            theChessBoard.get(currentPosition.row + z * i, currentPosition.column + k * i));
-
-                    if (code != Valid) break;
-
-                } // Innermost For Loop
-            } // 2nd Innermost For Loop
-        } // Outermost for loop
-
-        for (int multiplier : new int[]{1, -1}) {
-            // EAST
-            for (int i = 1; i < 8; i++) {
-                Piece pieceAtThisPosition = theChessBoard.get(this.currentPosition.row, currentPosition.column + i * multiplier);
-                MoveCode code = (addMove(new Position(currentPosition.row, currentPosition.column + i * multiplier), pieceAtThisPosition));
-                if (code != Valid) {
-                    break;
-                }
-            }
+    int getType() {
+        return Bitboard.QUEEN;
+    }
 
-            // SOUTH
-            for (int i = 1; i < 8; i++) {
-                Piece pieceAtThisPosition = theChessBoard.get(currentPosition.row + i * multiplier, currentPosition.column);
-                MoveCode code = (addMove(new Position(currentPosition.row + i * multiplier, currentPosition.column), pieceAtThisPosition));
-                if (code != Valid) {
-                    break;
-                }
-            }
-        }
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+        long targets = Attacks.queen(getSquare(), theChessBoard.occupied);
+        addTargets(theChessBoard, moves, targets & ~theChessBoard.colorBoards[color.ordinal()]);
     }
 }
 
 class King extends Piece {
 
-    King(Color theColor, Position thePosition) {
+    King(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "K";        // pieceIdentification = theColor.toString().charAt(0) + "W";
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
-
-        availableMoves.clear();
-        // DIAGONAL
-        for (int z : new int[]{-1, 1}) {
-            for (int k : new int[]{-1, 1}) {
-                int i = 1;
-                MoveCode code = addMove(new Position(currentPosition.row + z * i, currentPosition.column + k * i),
-                        theChessBoard.get(currentPosition.row + z * i, currentPosition.column + k * i));
-            } // 2nd Innermost For Loop
-        } // Outermost for loop
-
-        for (int multiplier : new int[]{1, -1}) {
-            // EAST
-            int i = 1;
-            Piece pieceAtThisPosition = theChessBoard.get(this.currentPosition.row, currentPosition.column + i * multiplier);
-            addMove(new Position(currentPosition.row, currentPosition.column + i * multiplier), pieceAtThisPosition);
-
-            pieceAtThisPosition = theChessBoard.get(currentPosition.row + i * multiplier, currentPosition.column);
-            addMove(new Position(currentPosition.row + i * multiplier, currentPosition.column), pieceAtThisPosition);
-        }
-
+    int getType() {
+        return Bitboard.KING;
+    }
 
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
+        addTargets(theChessBoard, moves, Attacks.KING[getSquare()] & ~theChessBoard.colorBoards[color.ordinal()]);
     }
 
 }
 
 class Pawn extends Piece {
 
-    Pawn(Color theColor, Position thePosition) {
+    Pawn(Color theColor, Square thePosition) {
         super(theColor, thePosition);
         pieceIdentification += "P";
 //        pieceIdentification = (theColor == Color.Black) ? outputHelpers.BLACK : outputHelpers.WHITE + "P";
@@ -356,54 +314,36 @@ class Pawn extends Piece {
     }
 
     @Override
-    protected void getMoves(ChessBoard theChessBoard) {
+    int getType() {
+        return Bitboard.PAWN;
+    }
 
-        availableMoves.clear();
+    @Override
+    void generateMoves(ChessBoard theChessBoard, MoveList moves) {
 
-        int modifier = 1;
-
-        // INITIAL MOVES
-        if (this.color == Color.Black) {
-            // Starting
-            if (currentPosition.equals(new Position(1, currentPosition.column))) {
-                if (theChessBoard.get(2, currentPosition.column) == null) {
-                    availableMoves.add(new Position(2, currentPosition.column));
-                    if (theChessBoard.get(3, currentPosition.column) == null) {
-                        availableMoves.add(new Position(3, currentPosition.column));
-                    }
-                }
-            }
-        }
-        if (this.color == Color.White) {
-            modifier = -1;
-            if (currentPosition.equals(new Position(6, currentPosition.column))) {
-                if (theChessBoard.get(5, currentPosition.column) == null) {
-                    availableMoves.add(new Position(5, currentPosition.column));
-                    if (theChessBoard.get(4, currentPosition.column) == null) {
-                        availableMoves.add(new Position(4, currentPosition.column));
-                    }
-                }
-            }
-        }
+        // White pawns start on row 6 and walk towards row 0
+        int modifier = (this.color == Color.White) ? -1 : 1;
+        int startingRow = (this.color == Color.White) ? 6 : 1;
 
-        // GENERIC MOVES
-        if (theChessBoard.get(currentPosition.row + modifier, currentPosition.column) == null) {
-            availableMoves.add(new Position(currentPosition.row + modifier, currentPosition.column));
-        }
+        int from = getSquare();
+        int row = currentPosition.row + modifier;
+        int column = currentPosition.column;
+
+        if (theChessBoard.get(row, column) == null) {
+            moves.add(MoveList.encode(from, Bitboard.square(row, column), MoveList.QUIET));
 
-        if (theChessBoard.get(currentPosition.row + modifier, currentPosition.column + modifier) != null &&
-                !(theChessBoard.get(currentPosition.row + modifier, currentPosition.column + modifier) instanceof OutOfBoundsPiece)) {
-            availableMoves.add(new Position(currentPosition.row + modifier, currentPosition.column + modifier));
+            if (currentPosition.row == startingRow && theChessBoard.get(row + modifier, column) == null) {
+                moves.add(MoveList.encode(from, Bitboard.square(row + modifier, column), MoveList.DOUBLE_PUSH));
+            }
         }
 
-        if (theChessBoard.get(currentPosition.row + modifier, currentPosition.column - modifier) != null &&
-                !(theChessBoard.get(currentPosition.row + modifier, currentPosition.column - modifier) instanceof OutOfBoundsPiece)) {
-            availableMoves.add(new Position(currentPosition.row + modifier, currentPosition.column - modifier));
+        for (int side = -1; side <= 1; side += 2) {
+            Piece target = theChessBoard.get(row, column + side);
+            if (target != null && !(target instanceof OutOfBoundsPiece) && target.getColor() != this.color) {
+                moves.add(MoveList.encode(from, Bitboard.square(row, column + side), MoveList.CAPTURE));
+            }
         }
 
     }
 
 }
-
-
-
@@ -0,0 +1,173 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Standard algebraic notation ("Nbd7", "exd5", "O-O", "e8=Q+"), read by matching it
+// against the legal moves of the position rather than by working out the move itself,
+// and written the same way: the legal moves say how much of the origin has to be given.
+final class San {
+
+    // Piece letters by type, from the knight up; pawns have none
+    private static final String PIECES = "NBRQK";
+
+    private San() {
+    }
+
+    // The one legal move written between start and end, or MoveList.NONE if none or several match.
+    // A promotion with no piece given is taken to be a queen.
+    static int parse(ChessBoard board, MoveList legal, CharSequence san, int start, int end) {
+        while (end > start && "+#!?".indexOf(san.charAt(end - 1)) >= 0) end--;
+        if (end - start < 2) return MoveList.NONE;
+
+        char first = san.charAt(start);
+        if (first == 'O' || first == '0') return parseCastle(legal, san, start, end);
+
+        int type = Bitboard.PAWN;
+        if (PIECES.indexOf(first) >= 0) {
+            type = Bitboard.KNIGHT + PIECES.indexOf(first);
+            start++;
+        }
+
+        int promotion = -1;
+        if (type == Bitboard.PAWN && end - start > 2) {
+            int piece = PIECES.indexOf(Character.toUpperCase(san.charAt(end - 1)));
+            if (piece >= 0 && piece < 4 && (san.charAt(end - 2) == '=' || isRank(san.charAt(end - 2)))) {
+                promotion = Bitboard.KNIGHT + piece;
+                end -= (san.charAt(end - 2) == '=') ? 2 : 1;
+            }
+        }
+
+        if (end - start < 2 || !isFile(san.charAt(end - 2)) || !isRank(san.charAt(end - 1))) return MoveList.NONE;
+        int to = Bitboard.square('8' - san.charAt(end - 1), san.charAt(end - 2) - 'a');
+
+        // Whatever is left over says which file or rank the piece came from
+        int fromRow = -1;
+        int fromColumn = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = san.charAt(i);
+            if (isFile(c)) fromColumn = c - 'a';
+            else if (isRank(c)) fromRow = '8' - c;
+            else if (c != 'x' && c != ':' && c != '-') return MoveList.NONE;
+        }
+
+        int found = MoveList.NONE;
+        for (int i = 0; i < legal.size(); i++) {
+            int move = legal.get(i);
+            int from = MoveList.from(move);
+
+            if (MoveList.to(move) != to || board.pieceAt(from).getType() != type) continue;
+            if ((fromColumn != -1 && Bitboard.column(from) != fromColumn) || (fromRow != -1 && Bitboard.row(from) != fromRow))
+                continue;
+            if (MoveList.isPromotion(move)
+                    && MoveList.promotionType(move) != ((promotion == -1) ? Bitboard.QUEEN : promotion)) continue;
+            if (!MoveList.isPromotion(move) && promotion != -1) continue;
+
+            if (found != MoveList.NONE) return MoveList.NONE;
+            found = move;
+        }
+        return found;
+    }
+
+    // Appends the legal move in board's position, with + or # when it gives check or mate.
+    // The board is played on to find out, and left as it was.
+    static void append(StringBuilder out, ChessBoard board, MoveList legal, int move) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        int flags = MoveList.flags(move);
+        int type = board.pieceAt(from).getType();
+
+        if (flags == MoveList.KING_CASTLE) {
+            out.append("O-O");
+        } else if (flags == MoveList.QUEEN_CASTLE) {
+            out.append("O-O-O");
+        } else if (type == Bitboard.PAWN) {
+            if (MoveList.isCapture(move)) out.append((char) ('a' + Bitboard.column(from))).append('x');
+            appendSquare(out, to);
+            if (MoveList.isPromotion(move)) out.append('=').append(PIECES.charAt(MoveList.promotionType(move) - Bitboard.KNIGHT));
+        } else {
+            out.append(PIECES.charAt(type - Bitboard.KNIGHT));
+            appendOrigin(out, board, legal, move, type);
+            if (MoveList.isCapture(move)) out.append('x');
+            appendSquare(out, to);
+        }
+
+        Piece moved = board.pieceAt(from);
+        int castlingRights = board.castlingRights;
+        int enPassantSquare = board.enPassantSquare;
+        Piece taken = board.makeMove(move);
+        if (board.isInCheck(board.sideToMove)) {
+            MoveList replies = new MoveList();
+            MoveGenerator.generateLegalMoves(board, board.sideToMove, replies);
+            out.append((replies.size() == 0) ? '#' : '+');
+        }
+        board.unmakeMove(move, moved, taken, castlingRights, enPassantSquare);
+    }
+
+    // The file, the rank or both, as far as another piece of the same type could reach the same square
+    private static void appendOrigin(StringBuilder out, ChessBoard board, MoveList legal, int move, int type) {
+        int from = MoveList.from(move);
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+
+        for (int i = 0; i < legal.size(); i++) {
+            int other = legal.get(i);
+            int otherFrom = MoveList.from(other);
+            if (otherFrom == from || MoveList.to(other) != MoveList.to(move) || board.pieceAt(otherFrom).getType() != type)
+                continue;
+            ambiguous = true;
+            if (Bitboard.column(otherFrom) == Bitboard.column(from)) sameFile = true;
+            if (Bitboard.row(otherFrom) == Bitboard.row(from)) sameRank = true;
+        }
+
+        if (!ambiguous) return;
+        if (!sameFile || sameRank) out.append((char) ('a' + Bitboard.column(from)));
+        if (sameFile) out.append((char) ('8' - Bitboard.row(from)));
+    }
+
+    private static void appendSquare(StringBuilder out, int square) {
+        out.append((char) ('a' + Bitboard.column(square))).append((char) ('8' - Bitboard.row(square)));
+    }
+
+    private static int parseCastle(MoveList legal, CharSequence san, int start, int end) {
+        int flags;
+        if (end - start == 3 && isCastleText(san, start, 3)) flags = MoveList.KING_CASTLE;
+        else if (end - start == 5 && isCastleText(san, start, 5)) flags = MoveList.QUEEN_CASTLE;
+        else return MoveList.NONE;
+
+        for (int i = 0; i < legal.size(); i++) {
+            if (MoveList.flags(legal.get(i)) == flags) return legal.get(i);
+        }
+        return MoveList.NONE;
+    }
+
+    // "O-O" or "O-O-O", written with letters or zeros
+    private static boolean isCastleText(CharSequence san, int start, int length) {
+        char o = san.charAt(start);
+        for (int i = 0; i < length; i++) {
+            if (san.charAt(start + i) != ((i % 2 == 0) ? o : '-')) return false;
+        }
+        return true;
+    }
+
+    private static boolean isFile(char c) {
+        return c >= 'a' && c <= 'h';
+    }
+
+    private static boolean isRank(char c) {
+        return c >= '1' && c <= '8';
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Iterative deepening negamax with alpha-beta and principal variation search, played
+// out on the game's own board and MoveStack and sharing the game's transposition table.
+final class Search {
+
+    static final int INFINITY = 32000;
+    static final int MATE = 31000;
+    static final int MAX_PLY = 128;
+
+    private static final int HISTORY_MAX = 16384;
+
+    // Scores beyond this are mates, counted in plies from the root
+    static final int MATE_BOUND = MATE - MAX_PLY;
+
+    static final class Result {
+        final int move;
+        final int score;
+        final int depth;
+        final long nodes;
+        // Principal variation, starting with move
+        final int[] line;
+
+        Result(int move, int score, int depth, long nodes, int[] line) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return "depth " + depth + " score " + score + " nodes " + nodes + " move " + MoveList.toString(move);
+        }
+    }
+
+    // The game searched, until attach points this at another
+    private logic game;
+    private ChessBoard board;
+    private MoveStack stack;
+    private Side whiteSide;
+    private Side blackSide;
+    // Taken from the game at the start of each search, as the game may be given new ones
+    private TranspositionTable table;
+    private Tablebases tablebases;
+    private final PawnTable pawns = new PawnTable(PawnTable.DEFAULT_ENTRIES);
+
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY + 1];
+    // Quiet moves that last cut the search off, two per ply, newest first
+    private final int[][] killers = new int[MAX_PLY + 2][2];
+    // By piece code and destination: how often a quiet move cut the search off, weighted by depth
+    private final int[][] history = new int[2 * Bitboard.PIECE_TYPES][64];
+    // By the piece code and destination of the move before: the quiet move that refuted it
+    private final int[][] counterMoves = new int[2 * Bitboard.PIECE_TYPES][64];
+    // Triangular principal variation table: pv[ply] holds the line found from ply onwards
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+
+    // Told of each iteration as it completes, when set
+    Consumer<Result> progress;
+
+    private long nodes;
+    private long nodeLimit;
+    private boolean aborted;
+    // Set from other threads; polled every few thousand nodes
+    private volatile boolean stopRequested;
+
+    Search(logic game) {
+        attach(game);
+        for (int i = 0; i < pickers.length; i++) pickers[i] = new MovePicker();
+    }
+
+    // Searches game from now on. Move ordering learned on the last game carries over, and
+    // killers and counter moves that do not fit the new one are never played.
+    void attach(logic game) {
+        this.game = game;
+        this.board = game.theBoard;
+        this.stack = game.theStack;
+        this.whiteSide = game.whiteSide;
+        this.blackSide = game.blackSide;
+    }
+
+    // Searches one ply deeper each iteration until maxDepth is done, maxNodes is spent or
+    // stop is called. The result is always that of the deepest iteration that completed.
+    // A stopped Search stays stopped until reset. A book move, if the game has an opening
+    // book with one for this position, is returned without searching.
+    Result search(int maxDepth, long maxNodes) {
+        int bookMove = game.bookMove();
+        if (bookMove != MoveList.NONE) return new Result(bookMove, 0, 0, 0, new int[]{bookMove});
+
+        game.table().newSearch();
+        return search(1, maxDepth, maxNodes);
+    }
+
+    // As above, without the book and starting at startDepth. Killers, history, counter moves
+    // and pawn structures carry over from one search to the next.
+    Result search(int startDepth, int maxDepth, long maxNodes) {
+        table = game.table();
+        tablebases = game.tablebases;
+        // What cut off in the last position mostly still does in this one, just less surely
+        for (int[] scores : history) {
+            for (int i = 0; i < scores.length; i++) scores[i] /= 2;
+        }
+
+        nodes = 0;
+        nodeLimit = maxNodes;
+        aborted = false;
+
+        Result result = new Result(MoveList.NONE, 0, 0, 0, new int[0]);
+
+        for (int depth = startDepth; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+            int score = negamax(depth, 0, -INFINITY, INFINITY);
+            if (aborted) break;
+
+            // No line at all when there is no move to make; pv[0][0] is then left from an earlier search
+            int move = (pvLength[0] > 0) ? pv[0][0] : MoveList.NONE;
+            result = new Result(move, score, depth, nodes, Arrays.copyOf(pv[0], pvLength[0]));
+            if (progress != null) progress.accept(result);
+            if (Math.abs(score) > MATE_BOUND) break;
+        }
+
+        // Even a depth 1 search ran out: fall back to any legal move
+        if (result.move == MoveList.NONE) {
+            MoveList moves = pickers[0].moves;
+            MoveGenerator.generateLegalMoves(board, board.sideToMove, moves);
+            if (moves.size() > 0) result = new Result(moves.get(0), 0, 0, nodes, new int[]{moves.get(0)});
+        }
+        return result;
+    }
+
+    void stop() {
+        stopRequested = true;
+    }
+
+    // Forgets an earlier stop, so the next search runs.
+    void reset() {
+        stopRequested = false;
+    }
+
+    long nodes() {
+        return nodes;
+    }
+
+    private boolean outOfBudget() {
+        if (nodes >= nodeLimit || ((nodes & 4095) == 0 && stopRequested)) aborted = true;
+        return aborted;
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
+
+        if (depth <= 0) return quiescence(ply, alpha, beta);
+
+        nodes++;
+        if (outOfBudget()) return 0;
+
+        if (ply > 0 && stack.isRepetition()) return 0;
+
+        // Endgames in the tables are known exactly, all the way to mate
+        if (ply > 0 && tablebases != null) {
+            int value = tablebases.probe(board);
+            if (value != Tablebases.MISSING) return Tablebases.score(value, ply);
+        }
+        if (ply >= MAX_PLY) return Evaluation.evaluate(board, pawns);
+
+        boolean pvNode = beta - alpha > 1;
+        long key = board.hash();
+        long entry = table.probe(key);
+        int hashMove = MoveList.NONE;
+
+        if (entry != TranspositionTable.MISS) {
+            hashMove = TranspositionTable.move(entry);
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+
+            if (!pvNode && TranspositionTable.depth(entry) >= depth
+                    && (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)))
+                return score;
+        }
+
+        MovePicker picker = pickers[ply];
+        sideToMove().getAllValidMoves(board, picker.moves);
+
+        if (picker.moves.size() == 0) return board.isInCheck(board.sideToMove) ? -MATE + ply : 0;
+
+        int previousPiece = -1;
+        int previousTo = 0;
+        if (stack.size() > 0) {
+            previousTo = MoveList.to(stack.moveAt(stack.size() - 1));
+            previousPiece = board.pieceAt(previousTo).getCode();
+        }
+        int counterMove = (previousPiece < 0) ? MoveList.NONE : counterMoves[previousPiece][previousTo];
+        picker.start(board, hashMove, killers[ply][0], killers[ply][1], counterMove, history);
+
+        int bestScore = -INFINITY;
+        int bestMove = MoveList.NONE;
+        int originalAlpha = alpha;
+        int searched = 0;
+
+        for (int move = picker.next(); move != MoveList.NONE; move = picker.next()) {
+            stack.apply(move);
+            int score;
+            if (searched++ == 0) {
+                score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            } else {
+                // Prove the move is no better than the first with a null window, re-search if it is
+                score = -negamax(depth - 1, ply + 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            }
+            stack.applyUndo();
+
+            if (aborted) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+
+                if (score > alpha) {
+                    alpha = score;
+                    updatePrincipalVariation(ply, move);
+                    if (alpha >= beta) {
+                        if (MovePicker.isQuiet(move)) rememberCutoff(move, depth, ply, previousPiece, previousTo);
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = (bestScore >= beta) ? TranspositionTable.LOWER
+                : (bestScore > originalAlpha) ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(key, bestMove, toTable(bestScore, ply), depth, bound);
+
+        return bestScore;
+    }
+
+    // Searches captures only, so the static evaluation is never taken in the middle of an exchange.
+    private int quiescence(int ply, int alpha, int beta) {
+        nodes++;
+        if (outOfBudget()) return 0;
+
+        int standPat = Evaluation.evaluate(board, pawns);
+        if (standPat >= beta || ply >= MAX_PLY) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        MovePicker picker = pickers[ply];
+        sideToMove().getAllValidMoves(board, picker.moves);
+        picker.startCaptures(board);
+
+        for (int move = picker.next(); move != MoveList.NONE; move = picker.next()) {
+            stack.apply(move);
+            int score = -quiescence(ply + 1, -beta, -alpha);
+            stack.applyUndo();
+
+            if (aborted) return 0;
+
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta) break;
+            }
+        }
+        return alpha;
+    }
+
+    private Side sideToMove() {
+        return (board.sideToMove == Color.White) ? whiteSide : blackSide;
+    }
+
+    // A quiet move that cut the search off is tried early wherever it is legal again: as a
+    // killer at the same ply, as the answer to the same move and by its history score.
+    private void rememberCutoff(int move, int depth, int ply, int previousPiece, int previousTo) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        if (previousPiece >= 0) counterMoves[previousPiece][previousTo] = move;
+
+        int[] scores = history[board.pieceAt(MoveList.from(move)).getCode()];
+        int to = MoveList.to(move);
+        // Deeper cutoffs count for more; the closer a score is to the cap, the less it grows
+        int bonus = Math.min(depth * depth, HISTORY_MAX);
+        scores[to] += bonus - scores[to] * bonus / HISTORY_MAX;
+    }
+
+    private void updatePrincipalVariation(int ply, int move) {
+        pv[ply][ply] = move;
+        for (int i = ply + 1; i < pvLength[ply + 1]; i++) pv[ply][i] = pv[ply + 1][i];
+        pvLength[ply] = pvLength[ply + 1];
+    }
+
+    // Mate scores are stored relative to the node, not the root, so they stay right when reached by another path.
+    private static int toTable(int score, int ply) {
+        if (score > MATE_BOUND) return score + ply;
+        if (score < -MATE_BOUND) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > MATE_BOUND) return score - ply;
+        if (score < -MATE_BOUND) return score + ply;
+        return score;
+    }
+}
@@ -24,7 +24,7 @@ public interface Side {
         int row = (this.getColor() == Color.White) ? 6 : 1;
 
         for (int i = 0; i < 8; i++) {
-            theBoard.move(new Pawn(this.getColor(), new Position(row, i)), row, i);
+            theBoard.move(new Pawn(this.getColor(), Square.of(row, i)), row, i);
         }
 
         row = (this.getColor() == Color.White) ? 7 : 0;
@@ -32,21 +32,25 @@ public interface Side {
         int col = 0;
 
         for (int i : new int[]{1, -1}) {
-            theBoard.move(new Rook(this.getColor(), new Position(row, col)), row, col);
+            theBoard.move(new Rook(this.getColor(), Square.of(row, col)), row, col);
             col += i;
-            theBoard.move(new Knight(this.getColor(), new Position(row, col)), row, col);
+            theBoard.move(new Knight(this.getColor(), Square.of(row, col)), row, col);
             col += i;
-            theBoard.move(new Bishop(this.getColor(), new Position(row, col)), row, col);
+            theBoard.move(new Bishop(this.getColor(), Square.of(row, col)), row, col);
             col = 7;
         }
 
         col = 3;
 
-        theBoard.move(new Queen(this.getColor(), new Position(row, col)), row, col);
+        theBoard.move(new Queen(this.getColor(), Square.of(row, col)), row, col);
 
         col = 4;
 
-        theBoard.move(new King(this.getColor(), new Position(row, col)), row, col);
+        theBoard.move(new King(this.getColor(), Square.of(row, col)), row, col);
+
+        theBoard.setCastlingRights(theBoard.castlingRights | ((this.getColor() == Color.White)
+                ? ChessBoard.WHITE_KINGSIDE | ChessBoard.WHITE_QUEENSIDE
+                : ChessBoard.BLACK_KINGSIDE | ChessBoard.BLACK_QUEENSIDE));
     }
 
     Color getColor();
@@ -55,13 +59,10 @@ public interface Side {
 
         ArrayList<Piece> piecesOfType = new ArrayList<>();
 
-        for (Piece[] row : theBoard.theBoard) {
-            for (Piece col : row) {
-                if (col != null && col.getClass() == searchPiece.getClass() && col.getColor() == this.getColor()) {
-                    piecesOfType.add(col);
-                }
-
-            }
+        long pieces = theBoard.pieceBoards[Bitboard.pieceCode(this.getColor(), searchPiece.getType())];
+        while (pieces != 0) {
+            piecesOfType.add(theBoard.pieceAt(Long.numberOfTrailingZeros(pieces)));
+            pieces &= pieces - 1;
         }
 
 
@@ -77,23 +78,24 @@ public interface Side {
 //        }
 //    }
 
-    default HashSet<Position> getAllValidMoves(ChessBoard theBoard) {
-        HashSet<Position> validMoveSet = new HashSet<>();
-
-        for (Piece[] row : theBoard.theBoard) {
-            for (Piece col : row) {
-                if (col != null && col.getColor() == this.getColor()) {
-                    col.getMoves(theBoard);
-                    validMoveSet.addAll(col.getAvailableMoves(theBoard));
-                }
+    default HashSet<Square> getAllValidMoves(ChessBoard theBoard) {
+        HashSet<Square> validMoveSet = new HashSet<>();
 
-            }
+        long pieces = theBoard.colorBoards[this.getColor().ordinal()];
+        while (pieces != 0) {
+            validMoveSet.addAll(theBoard.pieceAt(Long.numberOfTrailingZeros(pieces)).getAvailableMoves(theBoard));
+            pieces &= pieces - 1;
         }
 
         return validMoveSet;
 
     }
 
+    // Fills the caller's list with every legal move of this side; nothing is allocated.
+    default void getAllValidMoves(ChessBoard theBoard, MoveList moves) {
+        MoveGenerator.generateLegalMoves(theBoard, this.getColor(), moves);
+    }
+
 }
 
 class WhiteSide implements Side {
@@ -0,0 +1,357 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+// Perfect play for king and one piece against a lone king, with the stronger side as White.
+// Every arrangement of the three pieces and both sides to move has an index, and each
+// index a value packed into as few bits as the longest mate needs: 0 for a draw (or an
+// impossible position), otherwise the distance to mate in plies plus one. The side to move
+// wins when that distance is odd and is mated when it is even.
+final class Tablebase {
+
+    static final int STRONG_TO_MOVE = 0;
+    static final int WEAK_TO_MOVE = 1;
+    static final int ENTRIES = 2 * 64 * 64 * 64;
+
+    //     header   int magic, byte piece type, byte bits per entry, short unused, int entries, int words
+    //     words    the packed entries, lowest bits first
+    private static final int MAGIC = 0x43485442;
+    private static final int HEADER_BYTES = 16;
+
+    final int type;
+    private final int bits;
+    // Exactly one of these holds the entries: words after generation, mapped after load
+    private final long[] words;
+    private final ByteBuffer mapped;
+
+    private Tablebase(int type, int bits, long[] words, ByteBuffer mapped) {
+        this.type = type;
+        this.bits = bits;
+        this.words = words;
+        this.mapped = mapped;
+    }
+
+    static int index(int toMove, int strongKing, int weakKing, int piece) {
+        return (((toMove << 6 | strongKing) << 6 | weakKing) << 6) | piece;
+    }
+
+    int value(int index) {
+        long offset = (long) index * bits;
+        int word = (int) (offset >>> 6);
+        int shift = (int) (offset & 63);
+
+        long value = word(word) >>> shift;
+        if (shift + bits > 64) value |= word(word + 1) << (64 - shift);
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    private long word(int word) {
+        return (words != null) ? words[word] : mapped.getLong(HEADER_BYTES + 8 * word);
+    }
+
+    void save(Path path) throws IOException {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_BYTES + 8 * words.length);
+            buffer.putInt(MAGIC).put((byte) type).put((byte) bits).putShort((short) 0).putInt(ENTRIES).putInt(words.length);
+            for (long word : words) buffer.putLong(word);
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+    }
+
+    static Tablebase load(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (in.size() < HEADER_BYTES || mapped.getInt(0) != MAGIC || mapped.getInt(8) != ENTRIES
+                    || in.size() != HEADER_BYTES + 8L * mapped.getInt(12))
+                throw new IOException(path + " is not a tablebase");
+            return new Tablebase(mapped.get(4), mapped.get(5), null, mapped);
+        }
+    }
+
+    // Retrograde analysis: start from the mates and walk backwards one ply at a time, so every
+    // position is reached first at its true distance. A pawn table also needs the queen and rook
+    // tables, to see where its promotions lead.
+    static Tablebase generate(int type, Tablebase queens, Tablebase rooks) {
+        return new Generator(type, queens, rooks).run();
+    }
+
+    private static final class Generator {
+        private static final int INVALID = -1;
+        // Moves left for a position that can never be forced into a loss
+        private static final int ESCAPES = Integer.MAX_VALUE;
+
+        private final int type;
+        private final Tablebase queens;
+        private final Tablebase rooks;
+
+        // 0 while unknown, INVALID, or plies to mate plus one, as stored
+        private final AtomicIntegerArray values = new AtomicIntegerArray(ENTRIES);
+        // For the weak side to move: moves not yet known to lose
+        private final AtomicIntegerArray movesLeft = new AtomicIntegerArray(ENTRIES);
+        // For pawn tables: the distance at which a promotion wins, 0 if none does
+        private final int[] promotionWins = new int[ENTRIES];
+
+        Generator(int type, Tablebase queens, Tablebase rooks) {
+            this.type = type;
+            this.queens = queens;
+            this.rooks = rooks;
+        }
+
+        Tablebase run() {
+            IntStream.range(0, ENTRIES).parallel().forEach(this::initialize);
+            int lastPromotion = Arrays.stream(promotionWins).max().orElse(0);
+
+            for (int plies = 0; ; plies++) {
+                int level = plies;
+                if (plies % 2 == 1) {
+                    IntStream.range(0, ENTRIES).parallel()
+                            .filter(i -> promotionWins[i] == level).forEach(i -> values.compareAndSet(i, 0, level + 1));
+                }
+
+                int[] frontier = IntStream.range(0, ENTRIES).parallel().filter(i -> values.get(i) == level + 1).toArray();
+                if (frontier.length == 0 && plies >= lastPromotion) break;
+
+                if (plies % 2 == 0) Arrays.stream(frontier).parallel().forEach(i -> markWins(i, level));
+                else Arrays.stream(frontier).parallel().forEach(i -> markLosses(i, level));
+            }
+
+            int max = IntStream.range(0, ENTRIES).map(values::get).max().orElse(0);
+            int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+            long[] words = new long[(int) (((long) ENTRIES * bits + 63) / 64)];
+            for (int i = 0; i < ENTRIES; i++) {
+                long value = Math.max(values.get(i), 0);
+                long offset = (long) i * bits;
+                int word = (int) (offset >>> 6);
+                int shift = (int) (offset & 63);
+
+                words[word] |= value << shift;
+                if (shift + bits > 64) words[word + 1] |= value >>> (64 - shift);
+            }
+            return new Tablebase(type, bits, words, null);
+        }
+
+        private long attacks(int square, long occupied) {
+            switch (type) {
+                case Bitboard.PAWN:
+                    return Attacks.pawn(Color.White, square);
+                case Bitboard.ROOK:
+                    return Attacks.rook(square, occupied);
+                default:
+                    return Attacks.queen(square, occupied);
+            }
+        }
+
+        private void initialize(int index) {
+            int toMove = index >>> 18;
+            int strongKing = (index >>> 12) & 63;
+            int weakKing = (index >>> 6) & 63;
+            int piece = index & 63;
+            long occupied = Bitboard.bit(strongKing) | Bitboard.bit(weakKing) | Bitboard.bit(piece);
+
+            boolean impossible = Long.bitCount(occupied) < 3 || (Attacks.KING[strongKing] & Bitboard.bit(weakKing)) != 0
+                    || (type == Bitboard.PAWN && (Bitboard.row(piece) == 0 || Bitboard.row(piece) == 7));
+            boolean weakInCheck = (attacks(piece, occupied) & Bitboard.bit(weakKing)) != 0;
+
+            if (impossible || (toMove == STRONG_TO_MOVE && weakInCheck)) {
+                values.set(index, INVALID);
+            } else if (toMove == WEAK_TO_MOVE) {
+                int moves = 0;
+                boolean escapes = false;
+
+                long targets = Attacks.KING[weakKing] & ~Attacks.KING[strongKing];
+                // The king no longer blocks the squares behind it once it steps away
+                long attacked = attacks(piece, occupied ^ Bitboard.bit(weakKing));
+                while (targets != 0) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+
+                    // Taking the piece leaves two bare kings
+                    if (to == piece) escapes = true;
+                    else if ((attacked & Bitboard.bit(to)) == 0) moves++;
+                }
+
+                movesLeft.set(index, escapes ? ESCAPES : moves);
+                if (moves == 0 && !escapes) {
+                    if (weakInCheck) values.set(index, 1);
+                    else movesLeft.set(index, ESCAPES);
+                }
+            } else if (type == Bitboard.PAWN && Bitboard.row(piece) == 1) {
+                int to = piece - 8;
+                if (to == strongKing || to == weakKing) return;
+
+                // The weak side's loss in the resulting position, one ply further on
+                int best = 0;
+                for (Tablebase promoted : new Tablebase[]{queens, rooks}) {
+                    int value = promoted.value(index(WEAK_TO_MOVE, strongKing, weakKing, to));
+                    if (value > 0 && (value - 1) % 2 == 0 && (best == 0 || value < best)) best = value;
+                }
+                promotionWins[index] = best;
+            }
+        }
+
+        // The weak side is mated in plies: whatever the strong side just did wins in one more.
+        private void markWins(int index, int plies) {
+            int strongKing = (index >>> 12) & 63;
+            int weakKing = (index >>> 6) & 63;
+            int piece = index & 63;
+            long occupied = Bitboard.bit(strongKing) | Bitboard.bit(weakKing) | Bitboard.bit(piece);
+
+            long from = Attacks.KING[strongKing] & ~occupied;
+            while (from != 0) {
+                int square = Long.numberOfTrailingZeros(from);
+                from &= from - 1;
+                values.compareAndSet(index(STRONG_TO_MOVE, square, weakKing, piece), 0, plies + 2);
+            }
+
+            if (type != Bitboard.PAWN) {
+                from = attacks(piece, occupied) & ~occupied;
+            } else {
+                // White pawns walk towards row 0, so they came from the row below
+                int one = piece + 8;
+                from = 0;
+                if (Bitboard.row(one) < 7 && (occupied & Bitboard.bit(one)) == 0) {
+                    from |= Bitboard.bit(one);
+                    if (Bitboard.row(piece) == 4 && (occupied & Bitboard.bit(one + 8)) == 0) from |= Bitboard.bit(one + 8);
+                }
+            }
+            while (from != 0) {
+                int square = Long.numberOfTrailingZeros(from);
+                from &= from - 1;
+                values.compareAndSet(index(STRONG_TO_MOVE, strongKing, weakKing, square), 0, plies + 2);
+            }
+        }
+
+        // The strong side wins in plies: the weak king move that led here is one more losing move.
+        private void markLosses(int index, int plies) {
+            int strongKing = (index >>> 12) & 63;
+            int weakKing = (index >>> 6) & 63;
+            int piece = index & 63;
+            long occupied = Bitboard.bit(strongKing) | Bitboard.bit(weakKing) | Bitboard.bit(piece);
+
+            long from = Attacks.KING[weakKing] & ~occupied;
+            while (from != 0) {
+                int square = Long.numberOfTrailingZeros(from);
+                from &= from - 1;
+
+                int previous = index(WEAK_TO_MOVE, strongKing, square, piece);
+                if (values.get(previous) != INVALID && movesLeft.decrementAndGet(previous) == 0)
+                    values.compareAndSet(previous, 0, plies + 2);
+            }
+        }
+    }
+}
+
+// The tables on hand, by the type of the piece beside the stronger king, probed from any
+// position with both kings and one queen, rook or pawn, whichever side has it.
+//
+//     java chess.Tablebases generate <directory>
+//     java chess.Tablebases probe <directory> <fen>
+final class Tablebases {
+
+    // Returned by probe for positions no table covers
+    static final int MISSING = -1;
+
+    private static final int[] TYPES = {Bitboard.QUEEN, Bitboard.ROOK, Bitboard.PAWN};
+    private static final String[] NAMES = {"KQK.tb", "KRK.tb", "KPK.tb"};
+
+    private final Tablebase[] tables = new Tablebase[Bitboard.PIECE_TYPES];
+
+    // Whichever tables the directory holds
+    static Tablebases load(Path directory) throws IOException {
+        Tablebases tablebases = new Tablebases();
+        for (int i = 0; i < TYPES.length; i++) {
+            Path path = directory.resolve(NAMES[i]);
+            if (Files.exists(path)) tablebases.tables[TYPES[i]] = Tablebase.load(path);
+        }
+        return tablebases;
+    }
+
+    static Tablebases generate(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        Tablebases tablebases = new Tablebases();
+        Tablebase queens = Tablebase.generate(Bitboard.QUEEN, null, null);
+        Tablebase rooks = Tablebase.generate(Bitboard.ROOK, null, null);
+        tablebases.tables[Bitboard.QUEEN] = queens;
+        tablebases.tables[Bitboard.ROOK] = rooks;
+        tablebases.tables[Bitboard.PAWN] = Tablebase.generate(Bitboard.PAWN, queens, rooks);
+
+        for (int i = 0; i < TYPES.length; i++) tablebases.tables[TYPES[i]].save(directory.resolve(NAMES[i]));
+        return tablebases;
+    }
+
+    // The stored value for the position (see Tablebase), or MISSING. Takes constant time.
+    int probe(ChessBoard board) {
+        if (Long.bitCount(board.occupied) != 3 || board.castlingRights != 0) return MISSING;
+
+        long pieces = board.occupied & ~(board.pieceBoards[Bitboard.pieceCode(Color.White, Bitboard.KING)]
+                | board.pieceBoards[Bitboard.pieceCode(Color.Black, Bitboard.KING)]);
+        if (Long.bitCount(pieces) != 1) return MISSING;
+
+        int square = Long.numberOfTrailingZeros(pieces);
+        Piece piece = board.pieceAt(square);
+        Tablebase table = tables[piece.getType()];
+        if (table == null) return MISSING;
+
+        // The tables have White as the stronger side; for Black, turn the board upside down
+        Color strong = piece.getColor();
+        int flip = (strong == Color.White) ? 0 : 56;
+        int toMove = (board.sideToMove == strong) ? Tablebase.STRONG_TO_MOVE : Tablebase.WEAK_TO_MOVE;
+
+        return table.value(Tablebase.index(toMove, board.kingSquares[strong.ordinal()] ^ flip,
+                board.kingSquares[Bitboard.opposite(strong).ordinal()] ^ flip, square ^ flip));
+    }
+
+    // The search score of a probed value at the given distance from the root
+    static int score(int value, int ply) {
+        if (value == 0) return 0;
+        int plies = ply + value - 1;
+        return ((value - 1) % 2 == 1) ? Search.MATE - plies : -Search.MATE + plies;
+    }
+
+    static boolean isCheckmate(int value) {
+        return value == 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("generate")) {
+            long started = System.nanoTime();
+            generate(Paths.get(args[1]));
+            System.err.printf("Generated in %.1f s%n", (System.nanoTime() - started) / 1e9);
+        } else if (args.length >= 3 && args[0].equals("probe")) {
+            int value = load(Paths.get(args[1])).probe(ChessBoard.fromFen(args[2]));
+            if (value == MISSING) System.out.println("not in the tables");
+            else if (value == 0) System.out.println("draw");
+            else System.out.println(((value - 1) % 2 == 1 ? "win" : "loss") + " in " + (value - 1) + " plies");
+        } else {
+            System.err.println("usage: Tablebases generate <directory> | probe <directory> <fen>");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.util.Arrays;
+
+// Fixed-size hash table of search results keyed by ChessBoard.hash(). Each entry is two
+// longs: the key XOR the data, then the data. Threads read and write without locks; a
+// torn or overwritten entry fails the XOR check on probe and is treated as a miss.
+//
+// Data layout, low bits first: move (16), score (16, signed), depth (8), bound (2), generation (6).
+final class TranspositionTable {
+
+    static final int LOWER = 1;
+    static final int UPPER = 2;
+    static final int EXACT = 3;
+
+    static final long MISS = 0;
+
+    enum Replacement {
+        // Newest result wins
+        ALWAYS,
+        // Keep a deeper result for the same position unless it is from an older search
+        DEPTH_PREFERRED
+    }
+
+    private static final int ENTRY_BYTES = 16;
+    // Two longs an entry, so the backing array stays within Java's int-indexed limit
+    private static final int MAX_ENTRIES = 1 << 29;
+
+    private final long[] entries;
+    private final int mask;
+    private final Replacement replacement;
+    private volatile int generation;
+
+    TranspositionTable(int megabytes) {
+        this(megabytes, Replacement.DEPTH_PREFERRED);
+    }
+
+    TranspositionTable(int megabytes, Replacement replacement) {
+        long bytes = Math.max(1, megabytes) * (1L << 20);
+        int size = Integer.highestOneBit((int) Math.min(bytes / ENTRY_BYTES, MAX_ENTRIES));
+
+        this.entries = new long[2 * size];
+        this.mask = size - 1;
+        this.replacement = replacement;
+    }
+
+    static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    static int score(long data) {
+        return (short) (data >>> 16);
+    }
+
+    static int depth(long data) {
+        return (int) ((data >>> 32) & 0xFF);
+    }
+
+    static int bound(long data) {
+        return (int) ((data >>> 40) & 3);
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> 42);
+    }
+
+    // Called once per search so entries from earlier searches can be replaced first.
+    void newSearch() {
+        generation = (generation + 1) & 63;
+    }
+
+    void clear() {
+        Arrays.fill(entries, 0);
+    }
+
+    // The data stored for the key, or MISS.
+    long probe(long key) {
+        int index = 2 * ((int) key & mask);
+        long data = entries[index + 1];
+        if ((entries[index] ^ data) != key) return MISS;
+        return data;
+    }
+
+    void store(long key, int move, int score, int depth, int bound) {
+        int index = 2 * ((int) key & mask);
+        long oldData = entries[index + 1];
+        boolean sameKey = (entries[index] ^ oldData) == key;
+
+        if (replacement == Replacement.DEPTH_PREFERRED && sameKey && bound != EXACT
+                && generation(oldData) == generation && depth(oldData) > depth) return;
+
+        // Keep the old best move when this result has none
+        if (move == MoveList.NONE && sameKey) move = move(oldData);
+
+        long data = (move & 0xFFFFL)
+                | ((score & 0xFFFFL) << 16)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) bound << 40)
+                | ((long) generation << 42);
+
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    // Share of sampled entries written by the current search, in permille, as UCI reports it.
+    int hashfull() {
+        int used = 0;
+        int samples = Math.min(1000, entries.length / 2);
+        for (int i = 0; i < samples; i++) {
+            long data = entries[2 * i + 1];
+            if (data != 0 && generation(data) == generation) used++;
+        }
+        return used * 1000 / samples;
+    }
+}
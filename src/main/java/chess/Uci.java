@@ -0,0 +1,349 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Speaks the Universal Chess Interface, so the engine can be driven by chess GUIs and
+// tournament managers. Commands are read on the calling thread while a search runs on a
+// thread of its own, so isready and stop are answered at once; a stopped search hands back
+// the best move of its last finished iteration within a few thousand nodes.
+//
+//     java chess.Game uci
+final class Uci {
+
+    private static final String NAME = "The Game of Chess in Java";
+    private static final String AUTHOR = "Shynn Lawrence";
+
+    private static final int MAX_HASH_MEGABYTES = 4096;
+    private static final int MAX_THREADS = 256;
+    // What a GUI sends for a string option left blank
+    private static final String EMPTY = "<empty>";
+    // Kept back from the clock for the time the move takes to reach the GUI
+    private static final long MOVE_OVERHEAD_MILLIS = 30;
+    // The moves left on the clock when the GUI does not say
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+
+    private final PrintStream out;
+    private final logic game = new logic();
+    private ParallelSearch searcher;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "uci-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private Thread searching;
+    private ScheduledFuture<?> deadline;
+    // Counted down by stop; an infinite search that ends early holds its move back until then
+    private CountDownLatch stopped;
+
+    Uci(PrintStream out) {
+        this.out = out;
+        this.searcher = new ParallelSearch(game, 1);
+    }
+
+    // Answers commands until quit or the end of the input.
+    void run(Scanner in) {
+        while (in.hasNextLine()) {
+            String line = in.nextLine().trim();
+            if (line.equals("quit")) break;
+            if (!line.isEmpty()) command(line.split("\\s+"));
+        }
+
+        stopSearch();
+        timer.shutdownNow();
+        searcher.close();
+        try {
+            closeBook();
+        } catch (IOException e) {
+            // Only read from, so nothing is lost
+        }
+    }
+
+    private void command(String[] words) {
+        switch (words[0]) {
+            case "uci":
+                send("id name " + NAME);
+                send("id author " + AUTHOR);
+                send("option name Hash type spin default " + logic.DEFAULT_TABLE_MEGABYTES + " min 1 max " + MAX_HASH_MEGABYTES);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name BookFile type string default " + EMPTY);
+                send("option name TablebasePath type string default " + EMPTY);
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "ucinewgame":
+                stopSearch();
+                game.table().clear();
+                game.loadFen(ChessBoard.START_FEN);
+                break;
+            case "setoption":
+                stopSearch();
+                setOption(words);
+                break;
+            case "position":
+                stopSearch();
+                position(words);
+                break;
+            case "go":
+                stopSearch();
+                go(words);
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "debug":
+            case "register":
+            case "ponderhit":
+                break;
+            default:
+                send("info string unknown command " + words[0]);
+        }
+    }
+
+    // setoption name <name> value <value>
+    private void setOption(String[] words) {
+        int value = words.length;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].equals("value")) value = i;
+        }
+        String name = String.join(" ", Arrays.copyOfRange(words, Math.min(2, value), value));
+        // Whole, for paths with spaces in them
+        String text = (value + 1 < words.length) ? String.join(" ", Arrays.copyOfRange(words, value + 1, words.length)) : "";
+
+        try {
+            if (name.equalsIgnoreCase("Hash") && value + 1 < words.length) {
+                int megabytes = Math.max(1, Math.min(Integer.parseInt(words[value + 1]), MAX_HASH_MEGABYTES));
+                // Let the old table go before the new one is allocated
+                game.table = null;
+                game.table = new TranspositionTable(megabytes);
+            } else if (name.equalsIgnoreCase("Threads") && value + 1 < words.length) {
+                int threads = Math.max(1, Math.min(Integer.parseInt(words[value + 1]), MAX_THREADS));
+                searcher.close();
+                searcher = new ParallelSearch(game, threads);
+            } else if (name.equalsIgnoreCase("BookFile")) {
+                setBook(text);
+            } else if (name.equalsIgnoreCase("TablebasePath")) {
+                setTablebases(text);
+            } else {
+                send("info string unknown option " + name);
+            }
+        } catch (NumberFormatException e) {
+            send("info string bad value for " + name);
+        }
+    }
+
+    // Opens the book at path in place of the one in use, or only closes that one for <empty>
+    private void setBook(String path) {
+        try {
+            closeBook();
+            if (!path.isEmpty() && !path.equals(EMPTY)) game.book = OpeningBook.open(Paths.get(path));
+        } catch (IOException | InvalidPathException e) {
+            send("info string no book: " + e.getMessage());
+        }
+    }
+
+    // Loads whichever tables the directory holds in place of those in use, or drops them for <empty>
+    private void setTablebases(String path) {
+        game.tablebases = null;
+        if (path.isEmpty() || path.equals(EMPTY)) return;
+        try {
+            Path directory = Paths.get(path);
+            if (!Files.isDirectory(directory)) throw new IOException(path + " is not a directory");
+            game.tablebases = Tablebases.load(directory);
+        } catch (IOException | InvalidPathException e) {
+            send("info string no tablebases: " + e.getMessage());
+        }
+    }
+
+    private void closeBook() throws IOException {
+        OpeningBook book = game.book;
+        game.book = null;
+        if (book != null) book.close();
+    }
+
+    // position (startpos | fen <fen>) [moves <move>...]
+    // A position that can not be set up in full leaves the game as it was before the command.
+    private void position(String[] words) {
+        logic previous = game.copy();
+        int i;
+        if (words.length > 1 && words[1].equals("startpos")) {
+            game.loadFen(ChessBoard.START_FEN);
+            i = 2;
+        } else if (words.length > 1 && words[1].equals("fen")) {
+            StringBuilder fen = new StringBuilder();
+            for (i = 2; i < words.length && !words[i].equals("moves"); i++) fen.append(words[i]).append(' ');
+            try {
+                game.loadFen(fen.toString().trim());
+            } catch (IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+                return;
+            }
+        } else {
+            send("info string position needs startpos or fen");
+            return;
+        }
+
+        if (i < words.length && words[i].equals("moves")) {
+            for (i++; i < words.length; i++) {
+                int move = game.findMove(words[i]);
+                if (move == MoveList.NONE || game.move(move) != status.DEFAULT) {
+                    send("info string illegal move " + words[i]);
+                    game.copyFrom(previous);
+                    return;
+                }
+            }
+        }
+    }
+
+    // go [wtime <ms>] [btime <ms>] [winc <ms>] [binc <ms>] [movestogo <n>] [movetime <ms>]
+    //    [depth <plies>] [nodes <n>] [infinite]
+    private void go(String[] words) {
+        long time = -1;
+        long increment = 0;
+        int movesToGo = DEFAULT_MOVES_TO_GO;
+        long moveTime = -1;
+        int depth = Search.MAX_PLY;
+        long nodes = Long.MAX_VALUE;
+        boolean infinite = false;
+        boolean white = game.theBoard.sideToMove == Color.White;
+
+        try {
+            for (int i = 1; i < words.length; i++) {
+                String value = (i + 1 < words.length) ? words[i + 1] : "0";
+                switch (words[i]) {
+                    case "wtime":
+                        if (white) time = Long.parseLong(value);
+                        break;
+                    case "btime":
+                        if (!white) time = Long.parseLong(value);
+                        break;
+                    case "winc":
+                        if (white) increment = Long.parseLong(value);
+                        break;
+                    case "binc":
+                        if (!white) increment = Long.parseLong(value);
+                        break;
+                    case "movestogo":
+                        movesToGo = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "movetime":
+                        moveTime = Long.parseLong(value);
+                        break;
+                    case "depth":
+                        depth = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "nodes":
+                        nodes = Math.max(1, Long.parseLong(value));
+                        break;
+                    case "infinite":
+                        infinite = true;
+                        break;
+                    default:
+                        // ponder and searchmoves are searched as a normal go
+                }
+            }
+        } catch (NumberFormatException e) {
+            send("info string bad go parameter");
+        }
+
+        // -1 for no time control; with one, never less than a millisecond, however little is left
+        long millis = -1;
+        if (moveTime >= 0) {
+            millis = Math.max(1, moveTime - MOVE_OVERHEAD_MILLIS);
+        } else if (time >= 0) {
+            millis = Math.max(1, Math.min(time / movesToGo + increment * 3 / 4, time - MOVE_OVERHEAD_MILLIS));
+        }
+
+        int maxDepth = depth;
+        long maxNodes = nodes;
+        boolean holdMove = infinite;
+        CountDownLatch stop = new CountDownLatch(1);
+        long started = System.nanoTime();
+        searcher.reset();
+        stopped = stop;
+        searching = new Thread(() -> {
+            Search.Result result = searcher.search(maxDepth, maxNodes, r -> info(r, started));
+            if (holdMove) {
+                try {
+                    stop.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            send("bestmove " + MoveList.toString(result.move));
+        }, "uci-search");
+        searching.start();
+
+        if (millis > 0) deadline = timer.schedule(searcher::stop, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops any search, waiting for it to give its best move and for the timer not to fire late on the next one.
+    private void stopSearch() {
+        if (searching == null) return;
+
+        searcher.stop();
+        stopped.countDown();
+        try {
+            searching.join();
+            if (deadline != null && !deadline.cancel(false)) deadline.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException | ExecutionException e) {
+            // Cancelled before it fired
+        }
+        searching = null;
+        deadline = null;
+    }
+
+    private void info(Search.Result result, long started) {
+        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+
+        StringBuilder line = new StringBuilder("info depth ").append(result.depth).append(" score ");
+        if (result.score > Search.MATE_BOUND) line.append("mate ").append((Search.MATE - result.score + 1) / 2);
+        else if (result.score < -Search.MATE_BOUND) line.append("mate ").append(-(Search.MATE + result.score) / 2);
+        else line.append("cp ").append(result.score);
+
+        line.append(" nodes ").append(result.nodes).append(" nps ").append(result.nodes * 1000 / millis)
+                .append(" time ").append(millis).append(" hashfull ").append(game.table().hashfull()).append(" pv");
+        for (int move : result.line) line.append(' ').append(MoveList.toString(move));
+        send(line.toString());
+    }
+
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *     The Game of Chess in Java
+ *     Copyright (C) 2021 Shynn Lawrence
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package chess;
+
+// Random keys XORed together to identify a position. The generator is seeded and
+// written out here so keys stay the same across runs and can be stored on disk.
+final class Zobrist {
+
+    // Indexed by piece code (see Bitboard.pieceCode), then square
+    static final long[][] PIECES = new long[2 * Bitboard.PIECE_TYPES][64];
+    static final long[] CASTLING = new long[16];
+    static final long[] EN_PASSANT_FILE = new long[8];
+    static final long BLACK_TO_MOVE;
+
+    private static long state = 0x9E3779B97F4A7C15L;
+
+    static {
+        for (long[] squares : PIECES) {
+            for (int square = 0; square < 64; square++) squares[square] = next();
+        }
+        for (int i = 0; i < CASTLING.length; i++) CASTLING[i] = next();
+        for (int i = 0; i < EN_PASSANT_FILE.length; i++) EN_PASSANT_FILE[i] = next();
+        BLACK_TO_MOVE = next();
+    }
+
+    private Zobrist() {
+    }
+
+    // splitmix64
+    private static long next() {
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}